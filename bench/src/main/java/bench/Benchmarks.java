@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so the allocation rate of
+ * each is reported with its ops/s. Takes any JMH command line options.
+ *
+ * @author Gage Davidson
+ */
+public class Benchmarks {
+	
+	/**
+	 * Cannot be instantiated.
+	 */
+	private Benchmarks() {
+	}
+	
+	/**
+	 * @param args JMH command line options
+	 * @throws CommandLineOptionException if the options are invalid
+	 * @throws RunnerException if a benchmark fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
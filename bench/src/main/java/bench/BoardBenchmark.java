@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Board;
+import game.Color;
+import game.SearchBoard;
+import main.Parameters;
+
+/**
+ * Benchmarks the kernels of the array boards on seeded boards.
+ *
+ * The move benchmarked is the first valid move of the board.
+ * {@link Board#goalBoard(Color[][])} is benchmarked on a board of one
+ * color, since a random board fails on one of its first cells.
+ *
+ * @author Gage Davidson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+	
+	@Param({ "10", "25", "50", "100", "200" })
+	int size;
+	
+	@Param({ "3", "4", "5", "6" })
+	int colors;
+	
+	private Color[][] board;
+	private Color[][] solvedBoard;
+	private SearchBoard searchBoard;
+	private Color move;
+	
+	@Setup
+	public void setup() {
+		Parameters.setParameters(new String[] { "-bs", String.valueOf(size), "-gc", String.valueOf(colors) });
+		
+		board = SeededBoards.random(size, colors);
+		solvedBoard = SeededBoards.random(size, 1);
+		searchBoard = new SearchBoard(board);
+		
+		for (int color = 0; color < colors && move == null; ++color)
+			if (searchBoard.isMoveValid(Color.COLORS[color]))
+				move = Color.COLORS[color];
+	}
+	
+	@Benchmark
+	public int fitness() {
+		return searchBoard.fitness();
+	}
+	
+	@Benchmark
+	public boolean isMoveValid() {
+		return searchBoard.isMoveValid(move);
+	}
+	
+	@Benchmark
+	public Color[][] applyMove() {
+		return Board.applyMove(board, move);
+	}
+	
+	@Benchmark
+	public boolean goalBoard() {
+		return Board.goalBoard(solvedBoard);
+	}
+	
+	@Benchmark
+	public Color[][] copyBoard() {
+		return Board.copyBoard(board);
+	}
+}
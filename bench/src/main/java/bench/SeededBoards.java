@@ -0,0 +1,29 @@
+package bench;
+
+import game.Board;
+import game.Color;
+
+/**
+ * Boards made from a seed, so every run benchmarks the same boards.
+ *
+ * @author Gage Davidson
+ */
+public class SeededBoards {
+	
+	public static final long SEED = 50;
+	
+	/**
+	 * Cannot be instantiated.
+	 */
+	private SeededBoards() {
+	}
+	
+	/**
+	 * @param size width and height of the board
+	 * @param colors number of colors used
+	 * @return board of random colors from {@link #SEED}
+	 */
+	public static Color[][] random(int size, int colors) {
+		return Board.initRandom(size, colors, SEED);
+	}
+}
@@ -0,0 +1,62 @@
+package search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.SeededBoards;
+import game.BitBoard;
+import main.Parameters;
+
+/**
+ * Benchmarks expanding a node into its children on seeded boards. It
+ * lives in the search package since node expansion isn't public.
+ *
+ * Each expansion is of a node outside any search, so it is measured
+ * without the transposition table or node arena.
+ *
+ * @author Gage Davidson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeBenchmark {
+	
+	@Param({ "10", "25", "50", "100", "200" })
+	int size;
+	
+	@Param({ "3", "4", "5", "6" })
+	int colors;
+	
+	private BitBoard board;
+	
+	@Setup
+	public void setup() {
+		Parameters.setParameters(new String[] { "-bs", String.valueOf(size), "-gc", String.valueOf(colors) });
+		
+		board = new BitBoard(SeededBoards.random(size, colors));
+	}
+	
+	@Benchmark
+	public Node[] generateChildren() {
+		Node node = new Node(null);
+		
+		node.board = board;
+		node.generateChildren();
+		
+		return node.children;
+	}
+}
@@ -0,0 +1,84 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import game.Board;
+import game.Color;
+
+/**
+ * Tests solving boards of different sizes and colors with different
+ * options, including either evaluator, at the same time on one solver.
+ * The program parameters are never set, so a solve which read them
+ * instead of its own options would fail.
+ *
+ * @author Gage Davidson
+ */
+class SolverTest {
+	
+	private static final int BOARDS = 60;
+	
+	@Test
+	void concurrentSolvesEachSolveTheirOwnBoard() throws Exception {
+		Solver solver = new Solver(4);
+		List<Color[][]> boards = new ArrayList<>(BOARDS);
+		List<CompletableFuture<Color[]>> solutions = new ArrayList<>(BOARDS);
+		
+		for (int i = 0; i < BOARDS; ++i) {
+			Color[][] board = Board.initRandom(4 + i % 13, 2 + i % 5, i);
+			Evaluator evaluator = i % 4 == 1 ? Evaluator.ESTIMATE : Evaluator.FITNESS;
+			SearchOptions options = new SearchOptions(1 + i % 4, 1 + i % 3, evaluator, 1 + i % 3,
+					i % 2 == 0 ? 0 : 1 << 10, i % 3 == 0, false, false);
+			
+			boards.add(board);
+			solutions.add(solver.solve(board, options));
+		}
+		
+		for (int i = 0; i < BOARDS; ++i) {
+			Color[][] board = boards.get(i);
+			
+			for (Color move : solutions.get(i).get(1, TimeUnit.MINUTES))
+				board = Board.applyMove(board, move);
+			
+			assertTrue(Board.goalBoard(board), "solution " + i + " doesn't flood its board");
+		}
+		
+		solver.shutdown();
+	}
+	
+	@Test
+	void cancelledSolveStopsItsSearch() throws Exception {
+		Solver solver = new Solver(2);
+		CompletableFuture<Color[]> solution = solver.solve(Board.initRandom(60, 6, 1),
+				new SearchOptions(8, 8, Evaluator.FITNESS, 2, 1 << 16, false, false, false));
+		
+		solution.cancel(true);
+		
+		// a solve after the cancelled one still gets a thread
+		Color[][] board = Board.initRandom(8, 4, 2);
+		
+		for (Color move : solver.solve(board, new SearchOptions(2, 1, Evaluator.FITNESS, 2, 0, false, false, false)).get(1, TimeUnit.MINUTES))
+			board = Board.applyMove(board, move);
+		
+		assertTrue(Board.goalBoard(board));
+		solver.shutdown();
+	}
+	
+	@Test
+	void shutDownSolverRejectsSolves() {
+		Solver solver = new Solver(1);
+		
+		solver.shutdown();
+		
+		assertThrows(RejectedExecutionException.class,
+				() -> solver.solve(Board.initRandom(8, 4, 3), new SearchOptions(2, 1, Evaluator.FITNESS, 2, 0, false, false, false)));
+	}
+}
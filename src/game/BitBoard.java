@@ -0,0 +1,431 @@
+package game;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A packed representation of a game board used by the search. The board
+ * is compressed into a {@link RegionGraph} once, and each board only
+ * stores which regions are flooded as a bitmask over region ids. Each
+ * color is a bitmask of the regions with that color.
+ *
+ * Only the flooded region ever changes color, so the region graph and
+ * color masks are shared between a board and every board derived from
+ * it. Each board also tracks its frontier, the regions bordering the
+ * flooded region, so a move absorbs exactly the frontier regions of its
+ * color without flooding any cells.
+ *
+ * Each board carries a Zobrist hash of its flooded regions, updated
+ * with every move, which identifies the board's state for the search.
+ *
+ * @author Gage Davidson
+ */
+public class BitBoard {
+	
+	private static final ThreadLocal<int[][]> SCRATCH = new ThreadLocal<>();
+	
+	private final Masks masks;
+	private final long[] flooded; // regions connected to the upper-left corner
+	private final long[] frontier; // regions bordering the flooded region
+	private final int fitness; // number of flooded cells
+	private final Color floodColor; // color of the flooded region
+	private final long hash; // Zobrist hash of the flooded regions
+	
+	/**
+	 * @param board board to pack
+	 */
+	public BitBoard(Color[][] board) {
+		this(new RegionGraph(board));
+	}
+	
+	/**
+	 * @param graph region graph of the board to pack
+	 */
+	public BitBoard(RegionGraph graph) {
+		masks = new Masks(graph);
+		flooded = new long[masks.words];
+		frontier = new long[masks.words];
+		floodColor = graph.color(0);
+		fitness = graph.size(0);
+		hash = masks.keys[0];
+		
+		set(flooded, 0);
+		
+		for (int neighbor : graph.neighbors(0))
+			set(frontier, neighbor);
+	}
+	
+	/**
+	 * @param masks shared color masks
+	 * @param flooded flooded mask
+	 * @param frontier frontier mask
+	 * @param fitness number of flooded cells
+	 * @param floodColor color of the flooded region
+	 * @param hash Zobrist hash of the flooded regions
+	 */
+	private BitBoard(Masks masks, long[] flooded, long[] frontier, int fitness, Color floodColor, long hash) {
+		this.masks = masks;
+		this.flooded = flooded;
+		this.frontier = frontier;
+		this.fitness = fitness;
+		this.floodColor = floodColor;
+		this.hash = hash;
+	}
+	
+	/**
+	 * Determines if the given color is a valid move. A move is valid
+	 * only when the color is not the flooded color and touches the
+	 * flooded region.
+	 * @param color color to check
+	 * @return true if the move is valid
+	 */
+	public boolean isMoveValid(Color color) {
+		if (color == floodColor)
+			return false;
+		
+		long[] colorMask = masks.colors[color.ordinal()];
+		
+		for (int i = 0; i < masks.words; ++i)
+			if ((frontier[i] & colorMask[i]) != 0)
+				return true;
+		
+		return false;
+	}
+	
+	/**
+	 * Applies a move to this board. This method assumes the move
+	 * given is valid.
+	 * @param color color to use as move
+	 * @return board after applied move
+	 */
+	public BitBoard applyMove(Color color) {
+		long[] absorbed = absorb(color.ordinal());
+		int nextFitness = fitness;
+		long nextHash = hash;
+		
+		for (int i = 0; i < masks.words; ++i) {
+			long regions = absorbed[i];
+			
+			while (regions != 0) {
+				int region = (i << 6) + Long.numberOfTrailingZeros(regions);
+				
+				nextFitness += masks.graph.size(region);
+				nextHash ^= masks.keys[region];
+				
+				regions &= regions - 1;
+			}
+		}
+		
+		return applyMove(absorbed, nextFitness, color, nextHash);
+	}
+	
+	/**
+	 * Scans the frontier of the flooded region once and computes the
+	 * outcome of every move from this board: whether it is valid, the
+	 * regions it absorbs, the resulting fitness and the resulting hash. The
+	 * resulting boards are only built by {@link #applyMove(Expansion, Color)}.
+	 * @return outcome of every move from this board
+	 */
+	public Expansion expand() {
+		Expansion expansion = new Expansion(masks.colors.length, masks.graph.cells());
+		
+		for (int i = 0; i < masks.words; ++i) {
+			long regions = frontier[i];
+			
+			while (regions != 0) {
+				int region = (i << 6) + Long.numberOfTrailingZeros(regions);
+				int color = masks.graph.color(region).ordinal();
+				
+				if (expansion.absorbed[color] == null) {
+					expansion.absorbed[color] = new long[masks.words];
+					expansion.fitness[color] = fitness;
+					expansion.hash[color] = hash;
+				}
+				
+				set(expansion.absorbed[color], region);
+				expansion.fitness[color] += masks.graph.size(region);
+				expansion.hash[color] ^= masks.keys[region];
+				
+				regions &= regions - 1;
+			}
+		}
+		
+		return expansion;
+	}
+	
+	/**
+	 * Applies a move computed by {@link #expand()} to this board.
+	 * @param expansion expansion of this board
+	 * @param color color to use as move
+	 * @return board after applied move
+	 */
+	public BitBoard applyMove(Expansion expansion, Color color) {
+		return applyMove(expansion.absorbed[color.ordinal()], expansion.fitness(color), color, expansion.hash(color));
+	}
+	
+	/**
+	 * Builds the board after a move from the regions the move absorbs.
+	 * Only the absorbed regions and their neighbors are visited.
+	 * @param absorbed regions absorbed by the move
+	 * @param fitness fitness after the move
+	 * @param color color used as move
+	 * @param hash hash after the move
+	 * @return board after applied move
+	 */
+	private BitBoard applyMove(long[] absorbed, int fitness, Color color, long hash) {
+		long[] nextFlooded = new long[masks.words];
+		long[] nextFrontier = new long[masks.words];
+		
+		for (int i = 0; i < masks.words; ++i) {
+			nextFlooded[i] = flooded[i] | absorbed[i];
+			nextFrontier[i] = frontier[i] & ~absorbed[i];
+		}
+		
+		for (int i = 0; i < masks.words; ++i) {
+			long regions = absorbed[i];
+			
+			while (regions != 0) {
+				int region = (i << 6) + Long.numberOfTrailingZeros(regions);
+				
+				for (int neighbor : masks.graph.neighbors(region))
+					if (! test(nextFlooded, neighbor))
+						set(nextFrontier, neighbor);
+				
+				regions &= regions - 1;
+			}
+		}
+		
+		return new BitBoard(masks, nextFlooded, nextFrontier, fitness, color, hash);
+	}
+	
+	/**
+	 * @param color color index of a move
+	 * @return regions the move would absorb
+	 */
+	private long[] absorb(int color) {
+		long[] colorMask = masks.colors[color];
+		long[] absorbed = new long[masks.words];
+		
+		for (int i = 0; i < masks.words; ++i)
+			absorbed[i] = frontier[i] & colorMask[i];
+		
+		return absorbed;
+	}
+	
+	/**
+	 * @return number of cells in the flooded region
+	 */
+	public int fitness() {
+		return fitness;
+	}
+	
+	/**
+	 * @return true if the board is in the winning state
+	 */
+	public boolean goalBoard() {
+		return fitness == masks.graph.cells();
+	}
+	
+	/**
+	 * @return color of the flooded region
+	 */
+	public Color floodColor() {
+		return floodColor;
+	}
+	
+	/**
+	 * Boards with the same flooded regions have the same hash no matter
+	 * which moves led to them.
+	 * @return Zobrist hash of the flooded regions
+	 */
+	public long hash() {
+		return hash;
+	}
+	
+	/**
+	 * Determines a lower bound on the number of moves left to win from
+	 * this board. Each move absorbs only regions of one color adjacent to
+	 * the flooded region, so at least one move is needed per color still
+	 * left outside the flooded region, and at least as many moves as the
+	 * farthest region is from the flooded region in the region graph.
+	 * The bound changes by at most one per move, so it is consistent.
+	 * @return admissible estimate of the moves left to win
+	 */
+	public int lowerBound() {
+		return Math.max(colorsRemaining(), eccentricity());
+	}
+	
+	/**
+	 * @return number of colors with regions outside the flooded region
+	 */
+	public int colorsRemaining() {
+		int colors = 0;
+		
+		for (int color = 0; color < masks.colors.length; ++color) {
+			long[] colorMask = masks.colors[color];
+			
+			for (int i = 0; i < masks.words; ++i) {
+				if ((colorMask[i] & ~flooded[i]) != 0) {
+					++colors;
+					break;
+				}
+			}
+		}
+		
+		return colors;
+	}
+	
+	/**
+	 * @return greatest distance in the region graph from the flooded
+	 * region to any other region
+	 */
+	public int eccentricity() {
+		int regions = masks.graph.regions();
+		int[][] scratch = SCRATCH.get();
+		
+		if (scratch == null || scratch[0].length < regions) {
+			scratch = new int[][] { new int[regions], new int[regions] };
+			SCRATCH.set(scratch);
+		}
+		
+		int[] distance = scratch[0], queue = scratch[1];
+		int head = 0, tail = 0, eccentricity = 0;
+		
+		Arrays.fill(distance, 0, regions, -1);
+		
+		for (int i = 0; i < masks.words; ++i) {
+			long word = frontier[i];
+			
+			while (word != 0) {
+				int region = (i << 6) + Long.numberOfTrailingZeros(word);
+				
+				distance[region] = 1;
+				queue[tail++] = region;
+				
+				word &= word - 1;
+			}
+		}
+		
+		while (head < tail) {
+			int region = queue[head++];
+			
+			eccentricity = distance[region];
+			
+			for (int neighbor : masks.graph.neighbors(region)) {
+				if (distance[neighbor] != -1 || test(flooded, neighbor))
+					continue;
+				
+				distance[neighbor] = distance[region] + 1;
+				queue[tail++] = neighbor;
+			}
+		}
+		
+		return eccentricity;
+	}
+	
+	/**
+	 * Unpacks this board.
+	 * @return board as a 2D color array
+	 */
+	public Color[][] toBoard() {
+		RegionGraph graph = masks.graph;
+		Color[][] board = new Color[graph.width()][graph.height()];
+		
+		for (int x = 0; x < graph.width(); ++x) {
+			for (int y = 0; y < graph.height(); ++y) {
+				int region = graph.region(x, y);
+				
+				board[x][y] = test(flooded, region) ? floodColor : graph.color(region);
+			}
+		}
+		
+		return board;
+	}
+	
+	private static void set(long[] mask, int region) {
+		mask[region >>> 6] |= 1L << region;
+	}
+	
+	private static boolean test(long[] mask, int region) {
+		return (mask[region >>> 6] & (1L << region)) != 0;
+	}
+	
+	/**
+	 * The outcome of every move from a board, as computed by
+	 * {@link BitBoard#expand()}.
+	 */
+	public static class Expansion {
+		
+		private final long[][] absorbed; // regions each move absorbs, null if invalid
+		private final int[] fitness; // fitness after each move
+		private final long[] hash; // hash after each move
+		private final int cells;
+		
+		private Expansion(int colors, int cells) {
+			absorbed = new long[colors][];
+			fitness = new int[colors];
+			hash = new long[colors];
+			this.cells = cells;
+		}
+		
+		/**
+		 * @param color color to check
+		 * @return true if the move is valid
+		 */
+		public boolean isMoveValid(Color color) {
+			return absorbed[color.ordinal()] != null;
+		}
+		
+		/**
+		 * @param color valid color move
+		 * @return fitness of the board after the move
+		 */
+		public int fitness(Color color) {
+			return fitness[color.ordinal()];
+		}
+		
+		/**
+		 * @param color valid color move
+		 * @return true if the move reaches the winning state
+		 */
+		public boolean goalBoard(Color color) {
+			return fitness[color.ordinal()] == cells;
+		}
+		
+		/**
+		 * @param color valid color move
+		 * @return hash of the board after the move
+		 */
+		public long hash(Color color) {
+			return hash[color.ordinal()];
+		}
+	}
+	
+	/**
+	 * Region graph and color masks shared by every board derived from
+	 * the same initial board.
+	 */
+	private static class Masks {
+		
+		private static final long ZOBRIST_SEED = 0x466C6F6F64L;
+		
+		final RegionGraph graph;
+		final int words;
+		final long[][] colors; // regions of each color, indexed by ordinal
+		final long[] keys; // Zobrist key of each region
+		
+		Masks(RegionGraph graph) {
+			this.graph = graph;
+			words = (graph.regions() + 63) >>> 6;
+			colors = new long[Color.COLORS.length][words];
+			keys = new long[graph.regions()];
+			
+			SplittableRandom random = new SplittableRandom(ZOBRIST_SEED);
+			
+			for (int region = 0; region < graph.regions(); ++region) {
+				set(colors[graph.color(region).ordinal()], region);
+				keys[region] = random.nextLong();
+			}
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package game;
 
 import java.awt.Graphics;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Random;
 
 import main.Parameters;
 
@@ -19,14 +19,30 @@ public class Board {
 	}
 	
 	/**
-	 * Initializes a game board to a random arrangement of colors.
+	 * Initializes a game board to a random arrangement of colors which
+	 * is the same every time the same seed is used.
+	 * @param seed seed of the board
+	 * @return board of random colors
 	 */
-	public static Color[][] initRandom() {
-		Color[][] board = new Color[Parameters.gameBoardSize()][Parameters.gameBoardSize()];
+	public static Color[][] initRandom(long seed) {
+		return initRandom(Parameters.gameBoardSize(), Parameters.gameColors(), seed);
+	}
+	
+	/**
+	 * Initializes a game board of any size to a random arrangement of
+	 * colors which is the same every time the same seed is used.
+	 * @param size width and height of the board
+	 * @param colors number of colors used
+	 * @param seed seed of the board
+	 * @return board of random colors
+	 */
+	public static Color[][] initRandom(int size, int colors, long seed) {
+		Random random = new Random(seed);
+		Color[][] board = new Color[size][size];
 		
-		for (int x = 0; x < Parameters.gameBoardSize(); ++x)
-			for (int y = 0; y < Parameters.gameBoardSize(); ++y)
-				board[x][y] = Color.COLORS[ThreadLocalRandom.current().nextInt(Parameters.gameColors())];
+		for (int x = 0; x < size; ++x)
+			for (int y = 0; y < size; ++y)
+				board[x][y] = Color.COLORS[random.nextInt(colors)];
 		
 		return board;
 	}
@@ -39,17 +55,9 @@ public class Board {
 	 * @return board after applied move
 	 */
 	public static Color[][] applyMove(Color[][] board, Color color) {
-		SearchBoard searchBoard = new SearchBoard(board);
-		boolean[][] flip = searchBoard.search(color);
+		Color[][] newBoard = copyBoard(board);
 		
-		Color[][] newBoard = new Color[board.length][board[0].length];
-		
-		for (int x = 0; x < board.length; ++x)
-			for (int y = 0; y < board[x].length; ++y)
-				if (flip[x][y])
-					newBoard[x][y] = color;
-				else
-					newBoard[x][y] = board[x][y];
+		new SearchBoard(board).search(color, newBoard);
 		
 		return newBoard;
 	}
@@ -0,0 +1,171 @@
+package game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A corpus is a file of boards which are solved together, such as to
+ * measure how many boards a machine solves each second or to check a
+ * change to the search doesn't make its solutions worse.
+ *
+ * The file starts with a magic number, a version and the number of
+ * boards. Each board follows as its width and height and then its
+ * cells, packed two to a byte, so a corpus of thousands of boards is
+ * only a few hundred KB. Boards are packed the same way when they are
+ * sent to remote solvers.
+ *
+ * @author Gage Davidson
+ */
+public class Corpus {
+	
+	private static final int MAGIC = 0x464C4443; // "FLDC"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES + Integer.BYTES;
+	private static final int MIN_BOARD_BYTES = Short.BYTES + Short.BYTES + 1; // a board of one cell
+	
+	/**
+	 * Cannot be instantiated.
+	 */
+	private Corpus() {
+	}
+	
+	/**
+	 * Makes a corpus of random boards. Board i is made from the seed
+	 * plus i, so any board of the corpus can also be played on its own
+	 * with the same seed.
+	 * @param count number of boards
+	 * @param size width and height of each board
+	 * @param colors number of colors used
+	 * @param seed seed of the first board
+	 * @return boards of the corpus
+	 */
+	public static List<Color[][]> generate(int count, int size, int colors, long seed) {
+		List<Color[][]> boards = new ArrayList<>(count);
+		
+		for (int i = 0; i < count; ++i)
+			boards.add(Board.initRandom(size, colors, seed + i));
+		
+		return boards;
+	}
+	
+	/**
+	 * Writes a corpus to a file, replacing the file if it exists.
+	 * @param file path of the file
+	 * @param boards boards of the corpus
+	 * @throws IOException
+	 */
+	public static void write(String file, List<Color[][]> boards) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(boards.size());
+			
+			for (Color[][] board : boards)
+				writeBoard(out, board);
+		}
+	}
+	
+	/**
+	 * @param file path of the file
+	 * @return boards of the corpus, in the order they were written
+	 * @throws IOException if the file can't be read, isn't a corpus or
+	 * is cut short
+	 */
+	public static List<Color[][]> read(String file) throws IOException {
+		long length = new File(file).length();
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (length < HEADER_BYTES || in.readInt() != MAGIC)
+				throw new IOException(file + " is not a corpus");
+			
+			int version = in.readUnsignedShort();
+			
+			if (version != VERSION)
+				throw new IOException("Corpus version " + version + " is not supported");
+			
+			int count = in.readInt();
+			
+			if (count < 0 || count > (length - HEADER_BYTES) / MIN_BOARD_BYTES)
+				throw new IOException(file + " can't hold the " + count + " boards it claims");
+			
+			List<Color[][]> boards = new ArrayList<>(count);
+			
+			for (int i = 0; i < count; ++i) {
+				try {
+					boards.add(readBoard(in));
+				} catch (EOFException ex) {
+					throw new IOException(file + " ends in board " + i + " of " + count);
+				}
+			}
+			
+			return boards;
+		}
+	}
+	
+	/**
+	 * Writes a board packed two cells to a byte.
+	 * @param out stream to write to
+	 * @param board board to write
+	 * @throws IOException
+	 */
+	public static void writeBoard(DataOutputStream out, Color[][] board) throws IOException {
+		int width = board.length, height = board[0].length;
+		
+		out.writeShort(width);
+		out.writeShort(height);
+		
+		for (int cell = 0; cell < width * height; cell += 2) {
+			int low = board[cell / height][cell % height].ordinal();
+			int high = cell + 1 < width * height ? board[(cell + 1) / height][(cell + 1) % height].ordinal() : 0;
+			
+			out.writeByte(high << 4 | low);
+		}
+	}
+	
+	/**
+	 * @param in stream to read from
+	 * @return board read
+	 * @throws IOException if the board can't be read or has an invalid size
+	 * or color
+	 */
+	public static Color[][] readBoard(DataInputStream in) throws IOException {
+		int width = in.readUnsignedShort(), height = in.readUnsignedShort();
+		
+		if (width < 1 || height < 1)
+			throw new IOException("Invalid board size, width " + width + " and height " + height);
+		
+		Color[][] board = new Color[width][height];
+		
+		for (int cell = 0; cell < width * height; cell += 2) {
+			int packed = in.readUnsignedByte();
+			
+			board[cell / height][cell % height] = color(packed & 0xF);
+			
+			if (cell + 1 < width * height)
+				board[(cell + 1) / height][(cell + 1) % height] = color(packed >>> 4);
+		}
+		
+		return board;
+	}
+	
+	/**
+	 * @param ordinal ordinal read from a stream
+	 * @return color with the ordinal
+	 * @throws IOException if there is no such color
+	 */
+	private static Color color(int ordinal) throws IOException {
+		if (ordinal >= Color.COLORS.length)
+			throw new IOException("Invalid color " + ordinal);
+		
+		return Color.COLORS[ordinal];
+	}
+}
@@ -0,0 +1,196 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * A board compressed into its connected same-color regions. Each region
+ * has an id, a color, a size and a list of neighboring regions. The
+ * search only ever floods whole regions, so it can work on the region
+ * graph instead of on individual cells.
+ *
+ * Region 0 is always the region containing the upper-left corner.
+ *
+ * @author Gage Davidson
+ */
+public class RegionGraph {
+	
+	private final int width, height;
+	private final int[] labels; // region of each cell, indexed by x * height + y
+	private final Color[] colors; // color of each region
+	private final int[] sizes; // number of cells in each region
+	private final int[][] neighbors; // regions adjacent to each region
+	
+	/**
+	 * Labels the connected regions of a board and builds their graph.
+	 * @param board board to compress
+	 */
+	public RegionGraph(Color[][] board) {
+		width = board.length;
+		height = board[0].length;
+		labels = new int[width * height];
+		
+		Arrays.fill(labels, -1);
+		
+		int[] order = new int[labels.length]; // cells grouped by region
+		int[] starts = new int[labels.length + 1]; // start of each region in order
+		int regions = 0, size = 0;
+		
+		for (int seed = 0; seed < labels.length; ++seed) {
+			if (labels[seed] != -1)
+				continue;
+			
+			starts[regions] = size;
+			labels[seed] = regions;
+			order[size++] = seed;
+			
+			Color color = board[seed / height][seed % height];
+			
+			for (int next = starts[regions]; next < size; ++next) {
+				int cell = order[next];
+				int x = cell / height, y = cell % height;
+				
+				if (x + 1 < width && labels[cell + height] == -1 && board[x + 1][y] == color) {
+					labels[cell + height] = regions;
+					order[size++] = cell + height;
+				}
+				
+				if (x > 0 && labels[cell - height] == -1 && board[x - 1][y] == color) {
+					labels[cell - height] = regions;
+					order[size++] = cell - height;
+				}
+				
+				if (y + 1 < height && labels[cell + 1] == -1 && board[x][y + 1] == color) {
+					labels[cell + 1] = regions;
+					order[size++] = cell + 1;
+				}
+				
+				if (y > 0 && labels[cell - 1] == -1 && board[x][y - 1] == color) {
+					labels[cell - 1] = regions;
+					order[size++] = cell - 1;
+				}
+			}
+			
+			++regions;
+		}
+		
+		starts[regions] = size;
+		
+		colors = new Color[regions];
+		sizes = new int[regions];
+		neighbors = new int[regions][];
+		
+		int[] lastSeen = new int[regions]; // last region which listed each region
+		int[] adjacent = new int[regions];
+		
+		Arrays.fill(lastSeen, -1);
+		
+		for (int region = 0; region < regions; ++region) {
+			int first = order[starts[region]];
+			int count = 0;
+			
+			colors[region] = board[first / height][first % height];
+			sizes[region] = starts[region + 1] - starts[region];
+			
+			for (int next = starts[region]; next < starts[region + 1]; ++next) {
+				int cell = order[next];
+				int x = cell / height, y = cell % height;
+				
+				if (x + 1 < width)
+					count = addNeighbor(region, labels[cell + height], lastSeen, adjacent, count);
+				
+				if (x > 0)
+					count = addNeighbor(region, labels[cell - height], lastSeen, adjacent, count);
+				
+				if (y + 1 < height)
+					count = addNeighbor(region, labels[cell + 1], lastSeen, adjacent, count);
+				
+				if (y > 0)
+					count = addNeighbor(region, labels[cell - 1], lastSeen, adjacent, count);
+			}
+			
+			neighbors[region] = Arrays.copyOf(adjacent, count);
+		}
+	}
+	
+	/**
+	 * Adds a region to the neighbor list being built if it is a different
+	 * region and hasn't been added yet.
+	 * @param region region whose neighbors are being listed
+	 * @param other region adjacent to one of its cells
+	 * @param lastSeen last region which listed each region
+	 * @param adjacent neighbor list being built
+	 * @param count length of the neighbor list
+	 * @return new length of the neighbor list
+	 */
+	private static int addNeighbor(int region, int other, int[] lastSeen, int[] adjacent, int count) {
+		if (other == region || lastSeen[other] == region)
+			return count;
+		
+		lastSeen[other] = region;
+		adjacent[count] = other;
+		
+		return count + 1;
+	}
+	
+	/**
+	 * @return number of regions
+	 */
+	public int regions() {
+		return colors.length;
+	}
+	
+	/**
+	 * @return number of cells on the board
+	 */
+	public int cells() {
+		return labels.length;
+	}
+	
+	/**
+	 * @param region region id
+	 * @return color of the region
+	 */
+	public Color color(int region) {
+		return colors[region];
+	}
+	
+	/**
+	 * @param region region id
+	 * @return number of cells in the region
+	 */
+	public int size(int region) {
+		return sizes[region];
+	}
+	
+	/**
+	 * @param region region id
+	 * @return ids of the regions adjacent to the region. This array
+	 * must not be modified.
+	 */
+	public int[] neighbors(int region) {
+		return neighbors[region];
+	}
+	
+	/**
+	 * @param x x-coordinate of a cell
+	 * @param y y-coordinate of a cell
+	 * @return region containing the cell
+	 */
+	public int region(int x, int y) {
+		return labels[x * height + y];
+	}
+	
+	/**
+	 * @return width of the board
+	 */
+	public int width() {
+		return width;
+	}
+	
+	/**
+	 * @return height of the board
+	 */
+	public int height() {
+		return height;
+	}
+}
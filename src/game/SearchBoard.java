@@ -1,16 +1,22 @@
 package game;
 
+import java.util.Arrays;
+
 /**
  * This class contains functions that help with searching the board
  * for various purposes. None of these methods alter the board.
- * 
+ *
+ * The searches are iterative and run on per-thread scratch buffers,
+ * so they neither allocate per call nor need locking, and they work
+ * on boards far larger than the thread stack would allow recursively.
+ *
  * @author Gage Davidson
  */
 public class SearchBoard {
 	
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+	
 	private final Color[][] board;
-	private boolean[][] searched; // which nodes have been searched
-	private boolean[][] flip; // when making a move, denotes if a color should be flipped
 	
 	/**
 	 * @param board board to search
@@ -20,40 +26,21 @@ public class SearchBoard {
 	}
 	
 	/**
-	 * Search the board and mark all slots that should be changed.
+	 * Search the board and set every slot connected to the upper-left
+	 * corner to the given color in the target board.
 	 * @param color color to search and mark for
-	 * @return 2D boolean array with marks in each slot where color
-	 * should be changed
+	 * @param target board to write the marked slots to
 	 */
-	synchronized boolean[][] search(Color color) {
-		searched = new boolean[board.length][board[0].length];
-		flip = new boolean[board.length][board[0].length];
+	void search(Color color, Color[][] target) {
+		Scratch scratch = scratch();
 		
-		search(color, 0, 0);
-		
-		return flip;
-	}
-	
-	/**
-	 * Recursive method that searches the board, marking slots
-	 * to be changed.
-	 * @param color color to search for
-	 * @param x x-coordinate to look at
-	 * @param y y-coordinate to look at
-	 */
-	private void search(Color color, int x, int y) {
-		if (! inBounds(x, y) || searched[x][y])
-			return;
-		
-		searched[x][y] = true;
-		
-		if (board[x][y] == board[0][0]) {
-			flip[x][y] = true;
+		while (scratch.size > 0) {
+			int cell = scratch.stack[--scratch.size];
+			int x = cell / height(), y = cell % height();
+			
+			target[x][y] = color;
 			
-			search(color, x + 1, y);
-			search(color, x - 1, y);
-			search(color, x, y + 1);
-			search(color, x, y - 1);
+			pushNeighbors(scratch, x, y);
 		}
 	}
 	
@@ -65,93 +52,137 @@ public class SearchBoard {
 	 * @param color color to check
 	 * @return true if the move is valid
 	 */
-	public synchronized boolean isMoveValid(Color color) {
-		searched = new boolean[board.length][board[0].length];
-		
+	public boolean isMoveValid(Color color) {
 		if (color == board[0][0])
 			return false;
 		
-		return isMoveValid(color, 0, 0);
-	}
-	
-	/**
-	 * Recursive method that searches the board, checking if a
-	 * move is valid.
-	 * @param color color move to check
-	 * @param x x-coordinate to look at
-	 * @param y y-coordinate to look at
-	 * @return true if a move is valid from this space
-	 */
-	private boolean isMoveValid(Color color, int x, int y) {
-		if (searched[x][y])
-			return false;
-		
-		searched[x][y] = true;
-		
-		if (board[x][y] != board[0][0])
-			return false;
-		
-		if (inBounds(x + 1, y))
-			if (board[x + 1][y] == color || isMoveValid(color, x + 1, y))
-				return true;
-		
-		if (inBounds(x - 1, y))
-			if (board[x - 1][y] == color || isMoveValid(color, x - 1, y))
-				return true;
-		
-		if (inBounds(x, y + 1))
-			if (board[x][y + 1] == color || isMoveValid(color, x, y + 1))
-				return true;
+		Scratch scratch = scratch();
 		
-		if (inBounds(x, y - 1))
-			if (board[x][y - 1] == color || isMoveValid(color, x, y - 1))
+		while (scratch.size > 0) {
+			int cell = scratch.stack[--scratch.size];
+			int x = cell / height(), y = cell % height();
+			
+			if (x + 1 < board.length && board[x + 1][y] == color ||
+					x > 0 && board[x - 1][y] == color ||
+					y + 1 < height() && board[x][y + 1] == color ||
+					y > 0 && board[x][y - 1] == color) {
+				scratch.size = 0;
 				return true;
+			}
+			
+			pushNeighbors(scratch, x, y);
+		}
 		
 		return false;
 	}
 	
 	/**
 	 * Determines the fitness of a given board. That is, how many colors
-	 * are connected via same color as the upper-left corner. 
+	 * are connected via same color as the upper-left corner.
 	 * @return number of colors that are connected via same color as the
 	 * upper-left corner
 	 */
-	public synchronized int fitness() {
-		searched = new boolean[board.length][board[0].length];
+	public int fitness() {
+		Scratch scratch = scratch();
+		int fitness = 0;
+		
+		while (scratch.size > 0) {
+			int cell = scratch.stack[--scratch.size];
+			
+			++fitness;
+			
+			pushNeighbors(scratch, cell / height(), cell % height());
+		}
+		
+		return fitness;
+	}
+	
+	/**
+	 * Prepares this thread's scratch buffers for a search from the
+	 * upper-left corner.
+	 * @return scratch buffers with the upper-left corner pushed
+	 */
+	private Scratch scratch() {
+		Scratch scratch = SCRATCH.get();
+		scratch.reset(board.length * height());
 		
-		return fitness(0, 0);
+		scratch.visit(0);
+		
+		return scratch;
 	}
 	
 	/**
-	 * Recursive method that searches the board, determining fitness.
-	 * @param x x-coordinate to look at
-	 * @param y y-coordinate to look at
-	 * @return fitness of this coordinate pair
+	 * Pushes the unvisited neighbors of a slot which have the same color
+	 * as the upper-left corner.
+	 * @param scratch scratch buffers to push to
+	 * @param x x-coordinate of the slot
+	 * @param y y-coordinate of the slot
 	 */
-	private	int fitness(int x, int y) {
-		if (! inBounds(x, y) || searched[x][y])
-			return 0;
+	private void pushNeighbors(Scratch scratch, int x, int y) {
+		Color corner = board[0][0];
+		int cell = x * height() + y;
+		
+		if (x + 1 < board.length && board[x + 1][y] == corner)
+			scratch.visit(cell + height());
 		
-		searched[x][y] = true;
+		if (x > 0 && board[x - 1][y] == corner)
+			scratch.visit(cell - height());
 		
-		if (board[x][y] != board[0][0])
-			return 0;
+		if (y + 1 < height() && board[x][y + 1] == corner)
+			scratch.visit(cell + 1);
 		
-		return 1 +
-				fitness(x + 1, y) +
-				fitness(x - 1, y) +
-				fitness(x, y + 1) +
-				fitness(x, y - 1);
+		if (y > 0 && board[x][y - 1] == corner)
+			scratch.visit(cell - 1);
+	}
+	
+	/**
+	 * @return height of the board
+	 */
+	private int height() {
+		return board[0].length;
 	}
 	
 	/**
-	 * Determines if a given coordinate pair is in bounds.
-	 * @param x x-coordinate to check
-	 * @param y y-coordinate to check
-	 * @return true if the coordinate pair is in bounds
+	 * Per-thread search buffers. A slot is visited when its stamp
+	 * equals the current stamp, so the buffers never need clearing
+	 * between searches.
 	 */
-	private boolean inBounds(int x, int y) {
-		return x >= 0 && x < board.length &&
-				y >= 0 && y < board[x].length;
+	private static class Scratch {
+		
+		int[] stamps = new int[0];
+		int[] stack = new int[0];
+		int stamp;
+		int size;
+		
+		/**
+		 * Starts a new search over a board with the given number of slots.
+		 * @param cells number of slots on the board
+		 */
+		void reset(int cells) {
+			if (stamps.length < cells) {
+				stamps = new int[cells];
+				stack = new int[cells];
+				stamp = 0;
+			}
+			
+			if (++stamp == 0) {
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+			
+			size = 0;
+		}
+		
+		/**
+		 * Pushes a slot if it hasn't been visited in this search.
+		 * @param cell slot index (x * height + y)
+		 */
+		void visit(int cell) {
+			if (stamps[cell] == stamp)
+				return;
+			
+			stamps[cell] = stamp;
+			stack[size++] = cell;
+		}
 	}
 }
@@ -0,0 +1,197 @@
+package main;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import game.Board;
+import game.Color;
+import game.Corpus;
+import search.Search;
+import search.SearchOptions;
+import search.Solver;
+
+/**
+ * Writes or solves a corpus of boards without the display, so how many
+ * boards a machine solves each second can be measured and a change to
+ * the search can be checked against the solutions of the last one.
+ *
+ * Every board of a corpus is given to one solver at once, whose
+ * searches share one pool of the program's threads. A line is printed for
+ * each board, in the order of the corpus, with its solution's moves,
+ * wall time, nodes expanded and the memory taken by the nodes it made:
+ * 		board,moves,millis,expanded,nodekb,valid,solution
+ * The throughput of the whole corpus is printed to the error stream
+ * once every board is solved, with the size of each search's
+ * transposition table, which is the same for every board, and the peak
+ * of the used heap sampled while the corpus was solved. The program exits
+ * with status 1 if any solution doesn't solve its board.
+ *
+ * @author Gage Davidson
+ */
+class Batch {
+	
+	private static final long HEAP_SAMPLE_MILLIS = 10; // time between samples of the used heap
+	
+	/**
+	 * Cannot be instantiated.
+	 */
+	private Batch() {
+	}
+	
+	/**
+	 * Writes a corpus if a number of boards was given, otherwise solves it.
+	 */
+	static void run() {
+		try {
+			if (Parameters.corpusSize() > 0)
+				generate();
+			else
+				solve();
+		} catch (IOException ex) {
+			System.out.println("IOException: " + ex.getMessage());
+			System.exit(-1);
+		}
+	}
+	
+	/**
+	 * Writes a corpus of seeded boards of the program's board size and colors.
+	 * @throws IOException
+	 */
+	private static void generate() throws IOException {
+		List<Color[][]> boards = Corpus.generate(Parameters.corpusSize(),
+				Parameters.gameBoardSize(), Parameters.gameColors(), Parameters.seed());
+		
+		Corpus.write(Parameters.corpus(), boards);
+		
+		System.out.printf("Wrote %d boards %dx%d with %d colors to %s, seeds %d to %d\n",
+				boards.size(), Parameters.gameBoardSize(), Parameters.gameBoardSize(), Parameters.gameColors(),
+				Parameters.corpus(), Parameters.seed(), Parameters.seed() + boards.size() - 1);
+	}
+	
+	/**
+	 * Solves every board of the corpus and reports each solution and
+	 * the throughput of the whole corpus.
+	 * @throws IOException if the corpus can't be read
+	 */
+	private static void solve() throws IOException {
+		List<Color[][]> boards = Corpus.read(Parameters.corpus());
+		SearchOptions options = SearchOptions.fromParameters().withDisplaySolution(false).withLogEvents(false);
+		Solver solver = new Solver(Parameters.maxThreads());
+		List<CompletableFuture<Result>> results = new ArrayList<>(boards.size());
+		int invalid = 0;
+		long moves = 0, tableBytes = 0;
+		
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "heap-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicLong peakHeap = new AtomicLong();
+		
+		System.out.println("board,moves,millis,expanded,nodekb,valid,solution");
+		
+		long start = System.nanoTime();
+		
+		sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(usedHeapBytes(), Math::max),
+				0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+		
+		for (Color[][] board : boards)
+			results.add(solver.solve(board, options, search -> result(board, search)));
+		
+		try {
+			for (int i = 0; i < results.size(); ++i) {
+				Result result = results.get(i).get();
+				
+				if (! result.valid)
+					++invalid;
+				moves += result.moves.length;
+				tableBytes = result.tableBytes;
+				
+				System.out.printf("%d,%d,%d,%d,%d,%b,%s\n", i, result.moves.length, result.millis, result.expanded,
+						result.nodeBytes / 1024, result.valid, moveString(result.moves));
+			}
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IllegalStateException("Batch solve failed", ex);
+		} finally {
+			solver.shutdown();
+			sampler.shutdown();
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		
+		System.err.printf("Solved %d boards in %.2f s on %d threads: %.2f boards/s, %d moves in all, "
+				+ "%d KB table per search, %d KB peak used heap\n", boards.size(), seconds, Parameters.maxThreads(),
+				boards.size() / seconds, moves, tableBytes / 1024, peakHeap.get() / 1024);
+		
+		if (invalid > 0) {
+			System.err.printf("%d solutions don't solve their boards\n", invalid);
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Checks a board's solution and keeps what its search cost, so the
+	 * search's nodes can be freed before the rest of the corpus is solved.
+	 * @param board board which was solved
+	 * @param search complete search of the board
+	 * @return solution and what it cost
+	 */
+	private static Result result(Color[][] board, Search search) {
+		Result result = new Result();
+		
+		result.moves = search.getSolutionLeaf().getMoveSequence();
+		result.millis = search.getMillis();
+		result.expanded = search.getNodesExpanded();
+		result.nodeBytes = search.getNodeBytes();
+		result.tableBytes = search.getTableBytes();
+		
+		Color[][] solved = board;
+		
+		for (Color move : result.moves)
+			solved = Board.applyMove(solved, move);
+		
+		result.valid = Board.goalBoard(solved);
+		
+		return result;
+	}
+	
+	/**
+	 * @param moves sequence of moves
+	 * @return first letter of each move's color
+	 */
+	private static String moveString(Color[] moves) {
+		StringBuilder builder = new StringBuilder(moves.length);
+		
+		for (Color move : moves)
+			builder.append(move.name().charAt(0));
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * @return bytes of the heap in use now, across every heap pool
+	 */
+	private static long usedHeapBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	/**
+	 * Solution of one board of the corpus and what it cost.
+	 */
+	private static class Result {
+		Color[] moves;
+		long millis;
+		long expanded;
+		long nodeBytes;
+		long tableBytes;
+		boolean valid;
+	}
+}
@@ -3,6 +3,7 @@ package main;
 import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
@@ -10,7 +11,9 @@ import javax.swing.Timer;
 import game.Board;
 import game.Color;
 import game.UserGame;
+import search.AStarSearch;
 import search.Node;
+import search.ParallelAStarSearch;
 import search.RemoteSearch;
 import search.Search;
 import search.SolutionDisplay;
@@ -48,13 +51,33 @@ public class Flood {
 	 * 		-t <threads>
 	 * 		-ds <displaySolution>
 	 * 		-rem <solveRemote>
+	 * 		-tt <tableSize>
+	 * 		-sc <sequentialCutoff>
+	 * 		-alg <searchAlgorithm>
+	 * 		-bw <beamWidth>
+	 * 		-eval <evaluator>
+	 * 		-oh <offHeapNodes>
+	 * 		-bind <bindAddress>
+	 * 		-host <remoteHost>
+	 * 		-port <port>
+	 * 		-lw <localWorkers>
+	 * 		-seed <seed>
+	 * 		-corpus <corpusFile>
+	 * 		-generate <boardCount>
 	 */
 	public static void main(String[] args) {
 		Parameters.setParameters(args);
 		
-		gameBoard = Board.initRandom();
+		if (Parameters.corpus() != null) {
+			Batch.run();
+			return;
+		}
+		
+		gameBoard = Board.initRandom(Parameters.seed());
 		game = new UserGame(getInitialBoard());
 		
+		System.out.printf("Board seed is %d\n", Parameters.seed());
+		
 		runDisplay();
 		
 		if (! Parameters.doSearch())
@@ -66,9 +89,19 @@ public class Flood {
 			RemoteSearch remoteSearch = new RemoteSearch(getInitialBoard());
 			remoteSearch.run();
 			solutionLeaf = remoteSearch.getSolutionLeaf();
+		} else if (Parameters.searchAlgorithm().equals(Parameters.ALGORITHM_ASTAR)) {
+			AStarSearch search = new AStarSearch(getInitialBoard());
+			search.run();
+			solutionLeaf = search.getSolutionLeaf();
+		} else if (Parameters.searchAlgorithm().equals(Parameters.ALGORITHM_HDA)) {
+			ParallelAStarSearch search = new ParallelAStarSearch(getInitialBoard());
+			search.run();
+			solutionLeaf = search.getSolutionLeaf();
 		} else {
-			Search search = new Search(getInitialBoard());
+			ForkJoinPool pool = new ForkJoinPool(Parameters.maxThreads());
+			Search search = new Search(getInitialBoard(), pool);
 			search.run();
+			pool.shutdown();
 			solutionLeaf = search.getSolutionLeaf();
 		}
 		
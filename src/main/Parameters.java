@@ -1,5 +1,10 @@
 package main;
 
+import java.util.concurrent.ThreadLocalRandom;
+
+import search.Evaluator;
+import search.SearchOptions;
+
 /**
  * This class holds static program parameters and handles setting
  * the game parameters based on command line input, or using default values.
@@ -12,11 +17,21 @@ public class Parameters {
 	public static final int DRAW_CELL_BORDER_WIDTH = 1;
 	public static final int SOLUTION_DISPLAY_FPS = 3;
 	
+	public static final String ALGORITHM_GREEDY = "greedy";
+	public static final String ALGORITHM_ASTAR = "astar";
+	public static final String ALGORITHM_HDA = "hda";
+	
+	public static final String EVALUATOR_FITNESS = "fitness";
+	public static final String EVALUATOR_ESTIMATE = "estimate";
+	
 	/**
 	 * Program parameters which aren't changed.
 	 */
-	private static int gameBoardSize, gameCellDrawSize, gameColors, searchDepth, maxThreads;
-	private static boolean doSearch, displaySolution, solveRemote;
+	private static int gameBoardSize, gameCellDrawSize, gameColors, searchDepth, maxThreads, transpositionTableSize, sequentialCutoff, beamWidth, port, localWorkers, corpusSize;
+	private static long seed;
+	private static boolean doSearch, displaySolution, solveRemote, offHeapNodes;
+	private static String searchAlgorithm, bindAddress, remoteHost, corpus;
+	private static Evaluator evaluator;
 	private static String[] args;
 	
 	private static final int GAME_BOARD_SIZE_DEFAULT = 10;
@@ -26,6 +41,19 @@ public class Parameters {
 	private static final int MAX_THREADS_DEFAULT = 10;
 	private static final boolean DISPLAY_SOLUTION_DEFAULT = true;
 	private static final boolean SOLVE_REMOTE_DEFAULT = false;
+	private static final int TRANSPOSITION_TABLE_SIZE_DEFAULT = 1 << 20;
+	private static final int SEQUENTIAL_CUTOFF_DEFAULT = 2;
+	private static final String SEARCH_ALGORITHM_DEFAULT = ALGORITHM_GREEDY;
+	private static final int BEAM_WIDTH_DEFAULT = 1;
+	private static final Evaluator EVALUATOR_DEFAULT = Evaluator.FITNESS;
+	private static final boolean OFF_HEAP_NODES_DEFAULT = false;
+	private static final String BIND_ADDRESS_DEFAULT = "0.0.0.0";
+	private static final String REMOTE_HOST_DEFAULT = "129.3.20.26";
+	private static final int PORT_DEFAULT = 2600;
+	private static final int LOCAL_WORKERS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	private static final long SEED_DEFAULT = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+	private static final String CORPUS_DEFAULT = null;
+	private static final int CORPUS_SIZE_DEFAULT = 0;
 	
 	/**
 	 * Cannot be instantiated.
@@ -41,10 +69,24 @@ public class Parameters {
 	public static int maxThreads() { return maxThreads; }
 	public static boolean displaySolution() { return displaySolution; }
 	public static boolean solveRemote() { return solveRemote; }
+	public static int transpositionTableSize() { return transpositionTableSize; }
+	public static int sequentialCutoff() { return sequentialCutoff; }
+	public static String searchAlgorithm() { return searchAlgorithm; }
+	public static int beamWidth() { return beamWidth; }
+	public static Evaluator evaluator() { return evaluator; }
+	public static boolean offHeapNodes() { return offHeapNodes; }
+	public static String bindAddress() { return bindAddress; }
+	public static String remoteHost() { return remoteHost; }
+	public static int port() { return port; }
+	public static int localWorkers() { return localWorkers; }
+	public static long seed() { return seed; }
+	public static String corpus() { return corpus; }
+	public static int corpusSize() { return corpusSize; }
 	public static String[] getArgs() { return args; }
 	
 	/**
-	 * Initializes all the program parameters
+	 * Initializes all the program parameters. Informs the user and exits
+	 * the program if the usage is invalid.
 	 * @param args command line arguments
 	 */
 	public static void setParameters(String[] args) {
@@ -53,6 +95,20 @@ public class Parameters {
 		if (args.length > 0 && args[0].equals("-help"))
 			printHelp();
 		
+		try {
+			readParameters(args);
+		} catch (IllegalArgumentException ex) {
+			System.out.println(ex.getMessage() + ". Use -help for help.");
+			System.exit(-1);
+		}
+	}
+	
+	/**
+	 * Reads every program parameter from command line arguments.
+	 * @param args command line arguments
+	 * @throws IllegalArgumentException if a flag has an invalid value
+	 */
+	private static void readParameters(String[] args) {
 		gameBoardSize = getBoardSize(args);
 		gameCellDrawSize = DISPLAY_SIZE / gameBoardSize;
 		gameColors = getGameColors(args);
@@ -61,6 +117,32 @@ public class Parameters {
 		maxThreads = getMaxThreads(args);
 		displaySolution = getDisplaySolution(args);
 		solveRemote = getSolveRemote(args);
+		transpositionTableSize = getTranspositionTableSize(args);
+		sequentialCutoff = getSequentialCutoff(args);
+		searchAlgorithm = getSearchAlgorithm(args);
+		beamWidth = getBeamWidth(args);
+		evaluator = getEvaluator(args);
+		offHeapNodes = getOffHeapNodes(args);
+		bindAddress = getBindAddress(args);
+		remoteHost = getRemoteHost(args);
+		port = getPort(args);
+		localWorkers = getLocalWorkers(args);
+		seed = getSeed(args);
+		corpus = getCorpus(args);
+		corpusSize = getCorpusSize(args);
+	}
+	
+	/**
+	 * Reads the options of a search from command line arguments without
+	 * setting the program parameters or exiting, so arguments from
+	 * elsewhere, such as a remote server, can be checked.
+	 * @param args command line arguments
+	 * @return options of a search with the arguments
+	 * @throws IllegalArgumentException if a flag has an invalid value
+	 */
+	public static SearchOptions getSearchOptions(String[] args) {
+		return new SearchOptions(getSearchDepth(args), getBeamWidth(args), getEvaluator(args), getSequentialCutoff(args),
+				getTranspositionTableSize(args), getOffHeapNodes(args), getDisplaySolution(args), true);
 	}
 	
 	/**
@@ -71,10 +153,23 @@ public class Parameters {
 		System.out.println("-bs <boardSize>        (an integer)");
 		System.out.println("-gc <gameColors>       (an integer)");
 		System.out.println("-search <doSearch>     (a boolean)");
-		System.out.println("-sd <searchDepth>      (an integer)");
+		System.out.println("-sd <searchDepth>      (an integer, at least 1)");
 		System.out.println("-t  <threadCount>      (an integer)");
 		System.out.println("-ds <displaySolution>  (a boolean)");
 		System.out.println("-rem <solveRemote>     (a boolean)");
+		System.out.println("-tt <tableSize>        (an integer, 0 to disable)");
+		System.out.println("-sc <sequentialCutoff> (an integer)");
+		System.out.println("-alg <searchAlgorithm> (greedy, astar or hda)");
+		System.out.println("-bw <beamWidth>        (an integer, at least 1)");
+		System.out.println("-eval <evaluator>      (fitness or estimate, to choose the beam's nodes)");
+		System.out.println("-oh <offHeapNodes>     (a boolean)");
+		System.out.println("-bind <bindAddress>    (an address the remote search listens on)");
+		System.out.println("-host <remoteHost>     (an address remote solvers connect to)");
+		System.out.println("-port <port>           (an integer)");
+		System.out.println("-lw <localWorkers>     (an integer, 0 to only solve remotely)");
+		System.out.println("-seed <seed>           (an integer, random by default)");
+		System.out.println("-corpus <corpusFile>   (a file of boards to solve without the display)");
+		System.out.println("-generate <boardCount> (an integer, to write a corpus instead of solving it)");
 		System.out.println("Example usage: java -jar Flood.jar -bs 10 -gc 4 -search true -sd 4 -t 10 -ds true -rem false");
 		
 		System.exit(0);
@@ -92,7 +187,7 @@ public class Parameters {
 				try {
 					return Integer.parseInt(args[i + 1]);
 				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-bs");
 				}
 			}
 		}
@@ -112,7 +207,7 @@ public class Parameters {
 				try {
 					return Integer.parseInt(args[i + 1]);
 				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-gc");
 				}
 			}
 		}
@@ -134,7 +229,7 @@ public class Parameters {
 				try {
 					boolString = args[i + 1];
 				} catch (ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-search");
 				}
 				
 				if (boolString.equalsIgnoreCase("true"))
@@ -142,7 +237,7 @@ public class Parameters {
 				else if (boolString.equalsIgnoreCase("false"))
 					return false;
 				else
-					invalidUsage();
+					invalidUsage("-search");
 			}
 		}
 		
@@ -159,9 +254,14 @@ public class Parameters {
 		for (int i = 0; i < args.length; ++i) {
 			if (args[i].equals("-sd")) {
 				try {
-					return Integer.parseInt(args[i + 1]);
+					int searchDepth = Integer.parseInt(args[i + 1]);
+					
+					if (searchDepth < 1)
+						invalidUsage("-sd");
+					
+					return searchDepth;
 				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-sd");
 				}
 			}
 		}
@@ -181,7 +281,7 @@ public class Parameters {
 				try {
 					return Integer.parseInt(args[i + 1]);
 				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-t");
 				}
 			}
 		}
@@ -203,7 +303,7 @@ public class Parameters {
 				try {
 					boolString = args[i + 1];
 				} catch (ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-ds");
 				}
 				
 				if (boolString.equalsIgnoreCase("true"))
@@ -211,7 +311,7 @@ public class Parameters {
 				else if (boolString.equalsIgnoreCase("false"))
 					return false;
 				else
-					invalidUsage();
+					invalidUsage("-ds");
 			}
 		}
 		
@@ -232,7 +332,7 @@ public class Parameters {
 				try {
 					boolString = args[i + 1];
 				} catch (ArrayIndexOutOfBoundsException ex) {
-					invalidUsage();
+					invalidUsage("-rem");
 				}
 				
 				if (boolString.equalsIgnoreCase("true"))
@@ -240,7 +340,7 @@ public class Parameters {
 				else if (boolString.equalsIgnoreCase("false"))
 					return false;
 				else
-					invalidUsage();
+					invalidUsage("-rem");
 			}
 		}
 		
@@ -248,10 +348,316 @@ public class Parameters {
 	}
 	
 	/**
-	 * Informs the user the usage was invalid and exits the program.
+	 * Searches command line arguments for "-tt" flag. If one doesn't
+	 * exist, returns 1048576.
+	 * @param args command line arguments
+	 * @return number of entries in the transposition table
+	 */
+	private static int getTranspositionTableSize(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-tt")) {
+				try {
+					return Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-tt");
+				}
+			}
+		}
+		
+		return TRANSPOSITION_TABLE_SIZE_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-sc" flag. If one doesn't
+	 * exist, returns 2.
+	 * @param args command line arguments
+	 * @return remaining search depth below which subtrees are searched
+	 * sequentially instead of being forked
+	 */
+	private static int getSequentialCutoff(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-sc")) {
+				try {
+					return Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-sc");
+				}
+			}
+		}
+		
+		return SEQUENTIAL_CUTOFF_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-alg" flag. If one doesn't
+	 * exist, returns "greedy".
+	 * @param args command line arguments
+	 * @return search algorithm to use
+	 */
+	private static String getSearchAlgorithm(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-alg")) {
+				String algorithm = "";
+				
+				try {
+					algorithm = args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-alg");
+				}
+				
+				if (algorithm.equalsIgnoreCase(ALGORITHM_GREEDY))
+					return ALGORITHM_GREEDY;
+				else if (algorithm.equalsIgnoreCase(ALGORITHM_ASTAR))
+					return ALGORITHM_ASTAR;
+				else if (algorithm.equalsIgnoreCase(ALGORITHM_HDA))
+					return ALGORITHM_HDA;
+				else
+					invalidUsage("-alg");
+			}
+		}
+		
+		return SEARCH_ALGORITHM_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-bw" flag. If one doesn't
+	 * exist, returns 1.
+	 * @param args command line arguments
+	 * @return number of nodes kept between search windows
+	 */
+	private static int getBeamWidth(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-bw")) {
+				try {
+					int beamWidth = Integer.parseInt(args[i + 1]);
+					
+					if (beamWidth < 1)
+						invalidUsage("-bw");
+					
+					return beamWidth;
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-bw");
+				}
+			}
+		}
+		
+		return BEAM_WIDTH_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-eval" flag. If one doesn't
+	 * exist, returns the fitness evaluator.
+	 * @param args command line arguments
+	 * @return evaluator which chooses the nodes kept between search windows
+	 */
+	private static Evaluator getEvaluator(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-eval")) {
+				String evaluator = "";
+				
+				try {
+					evaluator = args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-eval");
+				}
+				
+				if (evaluator.equalsIgnoreCase(EVALUATOR_FITNESS))
+					return Evaluator.FITNESS;
+				else if (evaluator.equalsIgnoreCase(EVALUATOR_ESTIMATE))
+					return Evaluator.ESTIMATE;
+				else
+					invalidUsage("-eval");
+			}
+		}
+		
+		return EVALUATOR_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-oh" flag. If one doesn't
+	 * exist, returns false.
+	 * @param args command line arguments
+	 * @return true if the search should keep its nodes off the heap
+	 */
+	private static boolean getOffHeapNodes(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-oh")) {
+				String boolString = "";
+				
+				try {
+					boolString = args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-oh");
+				}
+				
+				if (boolString.equalsIgnoreCase("true"))
+					return true;
+				else if (boolString.equalsIgnoreCase("false"))
+					return false;
+				else
+					invalidUsage("-oh");
+			}
+		}
+		
+		return OFF_HEAP_NODES_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-bind" flag. If one doesn't
+	 * exist, returns "0.0.0.0".
+	 * @param args command line arguments
+	 * @return address the remote search listens on
+	 */
+	private static String getBindAddress(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-bind")) {
+				try {
+					return args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-bind");
+				}
+			}
+		}
+		
+		return BIND_ADDRESS_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-host" flag. If one doesn't
+	 * exist, returns "129.3.20.26".
+	 * @param args command line arguments
+	 * @return address of the remote search for remote solvers
+	 */
+	private static String getRemoteHost(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-host")) {
+				try {
+					return args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-host");
+				}
+			}
+		}
+		
+		return REMOTE_HOST_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-port" flag. If one doesn't
+	 * exist, returns 2600.
+	 * @param args command line arguments
+	 * @return port the remote search listens on
+	 */
+	private static int getPort(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-port")) {
+				try {
+					return Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-port");
+				}
+			}
+		}
+		
+		return PORT_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-lw" flag. If one doesn't
+	 * exist, the default number of local workers is used.
+	 * @param args command line arguments
+	 * @return number of jobs the remote search runs on its own machine at once
+	 */
+	private static int getLocalWorkers(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-lw")) {
+				try {
+					int localWorkers = Integer.parseInt(args[i + 1]);
+					
+					if (localWorkers < 0)
+						invalidUsage("-lw");
+					
+					return localWorkers;
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-lw");
+				}
+			}
+		}
+		
+		return LOCAL_WORKERS_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-seed" flag. If one doesn't
+	 * exist, returns a random seed.
+	 * @param args command line arguments
+	 * @return seed of the game board, or of the first board of a corpus
+	 */
+	private static long getSeed(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-seed")) {
+				try {
+					return Long.parseLong(args[i + 1]);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-seed");
+				}
+			}
+		}
+		
+		return SEED_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-corpus" flag. If one doesn't
+	 * exist, returns null.
+	 * @param args command line arguments
+	 * @return corpus file to solve or write, or null to play a single board
+	 */
+	private static String getCorpus(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-corpus")) {
+				try {
+					return args[i + 1];
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-corpus");
+				}
+			}
+		}
+		
+		return CORPUS_DEFAULT;
+	}
+	
+	/**
+	 * Searches command line arguments for "-generate" flag. If one doesn't
+	 * exist, returns 0.
+	 * @param args command line arguments
+	 * @return number of boards to write to the corpus, or 0 to solve it
+	 */
+	private static int getCorpusSize(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-generate")) {
+				try {
+					int corpusSize = Integer.parseInt(args[i + 1]);
+					
+					if (corpusSize < 0)
+						invalidUsage("-generate");
+					
+					return corpusSize;
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+					invalidUsage("-generate");
+				}
+			}
+		}
+		
+		return CORPUS_SIZE_DEFAULT;
+	}
+	
+	/**
+	 * Rejects the value given for a flag.
+	 * @param flag flag with an invalid value
+	 * @throws IllegalArgumentException always
 	 */
-	private static void invalidUsage() {
-		System.out.println("Invalid usage. Use -help for help.");
-		System.exit(-1);
+	private static void invalidUsage(String flag) {
+		throw new IllegalArgumentException("Invalid value for " + flag);
 	}
 }
@@ -0,0 +1,406 @@
+package remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import game.Board;
+import game.Color;
+import main.Parameters;
+import search.Node;
+import search.RemoteSearch;
+
+/**
+ * Simulates a cluster on this machine to measure how the remote search
+ * scales. For each number of workers, a {@link RemoteSearch} is started
+ * on localhost and the workers connect to it through links which can
+ * delay and throttle what is sent. Every cluster solves the same seeded
+ * board, and its solve time, bytes sent, worker utilization and speedup
+ * over the first cluster are reported.
+ *
+ * The program parameters are used for the board and the search, along
+ * with these flags:
+ * 		-workers <counts>     (comma separated, 1,2,4,8,16,32,64 by default)
+ * 		-cores <cores>        (cores of each worker, 1 by default)
+ * 		-latency <millis>     (delay of each link in each direction, 0 by default)
+ * 		-bandwidth <kbps>     (KB/s of each link in each direction, 0 for no limit)
+ * 		-seed <seed>          (seed of the board, 1 by default)
+ * 		-verbose <verbose>    (a boolean, to show what the search prints)
+ *
+ * @author Gage Davidson
+ */
+class ClusterSimulator {
+	
+	private static final int[] WORKERS_DEFAULT = { 1, 2, 4, 8, 16, 32, 64 };
+	private static final int CONNECT_RETRY_MILLIS = 10;
+	private static final int CHUNK_BYTES = 8192;
+	
+	private ClusterSimulator() {
+	}
+	
+	/**
+	 * @param args command line arguments
+	 * @throws Exception if a simulation fails
+	 */
+	public static void main(String[] args) throws Exception {
+		Parameters.setParameters(args);
+		
+		int[] workerCounts = getWorkers(args);
+		int cores = getInt(args, "-cores", 1);
+		int latency = getInt(args, "-latency", 0);
+		int bandwidth = getInt(args, "-bandwidth", 0);
+		long seed = getLong(args, "-seed", 1);
+		boolean verbose = Boolean.parseBoolean(getFlag(args, "-verbose", "false"));
+		
+		Color[][] board = Board.initRandom(seed);
+		PrintStream console = System.out;
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		long baseMillis = 0;
+		
+		console.printf("Board %dx%d with %d colors, seed %d; %d cores per worker, %d ms latency, %s\n",
+				board.length, board.length, Parameters.gameColors(), seed, cores, latency,
+				bandwidth == 0 ? "unlimited bandwidth" : bandwidth + " KB/s");
+		console.printf("%8s %10s %8s %10s %12s %6s\n", "workers", "ms", "speedup", "KB", "utilization", "moves");
+		
+		for (int run = 0; run < workerCounts.length; ++run) {
+			if (! verbose)
+				System.setOut(quiet);
+			
+			Result result = simulate(board, args, Parameters.port() + run, workerCounts[run], cores, latency, bandwidth);
+			
+			System.setOut(console);
+			
+			if (run == 0)
+				baseMillis = result.millis;
+			
+			console.printf("%8d %10d %8.2f %10d %11.1f%% %6d\n", workerCounts[run], result.millis,
+					(double) baseMillis / result.millis, result.bytes / 1024,
+					100.0 * result.busyNanos / (result.millis * 1000000.0 * workerCounts[run] * cores), result.moves);
+		}
+		
+		System.exit(0);
+	}
+	
+	/**
+	 * Solves a board on a simulated cluster.
+	 * @param board board to solve
+	 * @param args program parameters
+	 * @param port port for the coordinator
+	 * @param workers number of workers
+	 * @param cores cores of each worker
+	 * @param latency delay of each link in each direction, in milliseconds
+	 * @param bandwidth KB/s of each link in each direction, or 0 for no limit
+	 * @return measurements of the solve
+	 * @throws Exception if the solve fails
+	 */
+	private static Result simulate(Color[][] board, String[] args, int port, int workers, int cores,
+			int latency, int bandwidth) throws Exception {
+		// the port is put first since the first of a flag is used, and the rest are defaults
+		String[] runArgs = new String[args.length + 6];
+		
+		runArgs[0] = "-port";
+		runArgs[1] = String.valueOf(port);
+		System.arraycopy(args, 0, runArgs, 2, args.length);
+		runArgs[args.length + 2] = "-lw";
+		runArgs[args.length + 3] = "0";
+		runArgs[args.length + 4] = "-ds";
+		runArgs[args.length + 5] = "false";
+		Parameters.setParameters(runArgs);
+		
+		RemoteSearch search = new RemoteSearch();
+		Link link = new Link(port, latency, bandwidth * 1024L);
+		LongAdder busy = new LongAdder();
+		ArrayList<Thread> threads = new ArrayList<>();
+		
+		long start = System.nanoTime();
+		CompletableFuture<Node> solution = search.submit(board, runArgs);
+		search.shutdown();
+		
+		Thread server = new Thread(search, "coordinator");
+		server.start();
+		
+		for (int i = 0; i < workers; ++i) {
+			Thread worker = new Thread(() -> runWorker(link.port(), cores, busy, solution), "worker-" + i);
+			worker.start();
+			threads.add(worker);
+		}
+		
+		Node leaf = solution.get();
+		long millis = (System.nanoTime() - start) / 1000000;
+		
+		server.join();
+		
+		for (Thread worker : threads)
+			worker.join();
+		
+		link.close();
+		
+		return new Result(millis, link.bytes.get(), busy.sum(), leaf.getMoves());
+	}
+	
+	/**
+	 * Runs a worker until the coordinator stops. The worker connects again
+	 * if its connection fails before the board is solved, as it does
+	 * while the coordinator isn't listening yet.
+	 * @param port port of the worker's link
+	 * @param cores cores of the worker
+	 * @param busy total time spent searching jobs, in nanoseconds
+	 * @param solution solution of the board being solved
+	 */
+	private static void runWorker(int port, int cores, LongAdder busy, CompletableFuture<Node> solution) {
+		ForkJoinPool pool = new ForkJoinPool(cores);
+		ExecutorService runners = Executors.newFixedThreadPool(cores);
+		ScheduledExecutorService heart = Executors.newSingleThreadScheduledExecutor();
+		
+		try {
+			while (! solution.isDone()) {
+				try {
+					RemoteSolver.serve(InetAddress.getLoopbackAddress().getHostAddress(), port, cores,
+							pool, runners, heart, busy);
+					return;
+				} catch (IOException ex) {
+					Thread.sleep(CONNECT_RETRY_MILLIS);
+				}
+			}
+		} catch (InterruptedException ex) {
+			System.out.println("Worker stopped: " + ex.getMessage());
+		} finally {
+			heart.shutdownNow();
+			runners.shutdownNow();
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @param args command line arguments
+	 * @return numbers of workers to simulate
+	 */
+	private static int[] getWorkers(String[] args) {
+		String counts = getFlag(args, "-workers", null);
+		
+		if (counts == null)
+			return WORKERS_DEFAULT;
+		
+		return Arrays.stream(counts.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+	
+	/**
+	 * @param args command line arguments
+	 * @param flag flag to find
+	 * @param defaultValue value if the flag isn't given
+	 * @return integer given after the flag
+	 */
+	private static int getInt(String[] args, String flag, int defaultValue) {
+		return Integer.parseInt(getFlag(args, flag, String.valueOf(defaultValue)));
+	}
+	
+	/**
+	 * @param args command line arguments
+	 * @param flag flag to find
+	 * @param defaultValue value if the flag isn't given
+	 * @return long given after the flag
+	 */
+	private static long getLong(String[] args, String flag, long defaultValue) {
+		return Long.parseLong(getFlag(args, flag, String.valueOf(defaultValue)));
+	}
+	
+	/**
+	 * @param args command line arguments
+	 * @param flag flag to find
+	 * @param defaultValue value if the flag isn't given
+	 * @return value given after the flag
+	 */
+	private static String getFlag(String[] args, String flag, String defaultValue) {
+		for (int i = 0; i < args.length - 1; ++i)
+			if (args[i].equals(flag))
+				return args[i + 1];
+		
+		return defaultValue;
+	}
+	
+	/**
+	 * Measurements of one simulated solve.
+	 */
+	private static class Result {
+		
+		final long millis; // time to solve
+		final long bytes; // bytes sent both ways between the workers and coordinator
+		final long busyNanos; // time workers spent searching
+		final int moves; // moves of the solution
+		
+		Result(long millis, long bytes, long busyNanos, int moves) {
+			this.millis = millis;
+			this.bytes = bytes;
+			this.busyNanos = busyNanos;
+			this.moves = moves;
+		}
+	}
+	
+	/**
+	 * A relay between workers and the coordinator. Everything sent through
+	 * it is delayed by its latency, limited to its bandwidth and counted.
+	 */
+	private static class Link {
+		
+		final AtomicLong bytes;
+		private final ServerSocket listener;
+		private final int target;
+		private final long latencyNanos;
+		private final long bytesPerSecond;
+		
+		/**
+		 * @param target port of the coordinator
+		 * @param latency delay in each direction, in milliseconds
+		 * @param bytesPerSecond bandwidth in each direction, or 0 for no limit
+		 * @throws IOException if the link can't listen
+		 */
+		Link(int target, int latency, long bytesPerSecond) throws IOException {
+			this.target = target;
+			this.latencyNanos = latency * 1000000L;
+			this.bytesPerSecond = bytesPerSecond;
+			bytes = new AtomicLong();
+			listener = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+			
+			daemon(this::accept);
+		}
+		
+		/**
+		 * @return port workers connect to
+		 */
+		int port() {
+			return listener.getLocalPort();
+		}
+		
+		/**
+		 * Relays each worker which connects to the coordinator.
+		 */
+		private void accept() {
+			try {
+				for (;;) {
+					Socket worker = listener.accept();
+					Socket coordinator;
+					
+					try {
+						coordinator = new Socket(InetAddress.getLoopbackAddress(), target);
+					} catch (IOException ex) {
+						worker.close();
+						continue;
+					}
+					
+					worker.setTcpNoDelay(true);
+					coordinator.setTcpNoDelay(true);
+					relay(worker, coordinator);
+					relay(coordinator, worker);
+				}
+			} catch (IOException ex) {
+				// the link was closed
+			}
+		}
+		
+		/**
+		 * Relays everything one socket receives to another. Chunks are read
+		 * as they arrive and written once their delay has passed, at no more
+		 * than the bandwidth.
+		 * @param from socket to read from
+		 * @param to socket to write to
+		 */
+		private void relay(Socket from, Socket to) {
+			LinkedBlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+			
+			daemon(() -> {
+				try (InputStream in = from.getInputStream()) {
+					byte[] buffer = new byte[CHUNK_BYTES];
+					int read;
+					
+					while ((read = in.read(buffer)) != -1)
+						chunks.add(new Chunk(Arrays.copyOf(buffer, read), System.nanoTime() + latencyNanos));
+				} catch (IOException ex) {
+				}
+				
+				chunks.add(new Chunk(null, System.nanoTime() + latencyNanos));
+			});
+			
+			daemon(() -> {
+				try (OutputStream out = to.getOutputStream()) {
+					for (;;) {
+						Chunk chunk = chunks.take();
+						
+						sleepUntil(chunk.due);
+						
+						if (chunk.bytes == null)
+							break;
+						
+						out.write(chunk.bytes);
+						bytes.addAndGet(chunk.bytes.length);
+						
+						if (bytesPerSecond > 0)
+							sleepUntil(System.nanoTime() + chunk.bytes.length * 1000000000L / bytesPerSecond);
+					}
+				} catch (IOException | InterruptedException ex) {
+				}
+				
+				try {
+					from.close();
+					to.close();
+				} catch (IOException ex) {
+				}
+			});
+		}
+		
+		/**
+		 * Stops accepting workers.
+		 */
+		void close() throws IOException {
+			listener.close();
+		}
+		
+		/**
+		 * @param nanos time to sleep until, by {@link System#nanoTime()}
+		 * @throws InterruptedException
+		 */
+		private static void sleepUntil(long nanos) throws InterruptedException {
+			long left;
+			
+			while ((left = nanos - System.nanoTime()) > 0)
+				Thread.sleep(left / 1000000, (int) (left % 1000000));
+		}
+		
+		/**
+		 * @param task task to run on its own daemon thread
+		 */
+		private static void daemon(Runnable task) {
+			Thread thread = new Thread(task);
+			
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Bytes read from a socket and the time they may be written.
+	 */
+	private static class Chunk {
+		
+		final byte[] bytes; // null once the socket is closed
+		final long due;
+		
+		Chunk(byte[] bytes, long due) {
+			this.bytes = bytes;
+			this.due = due;
+		}
+	}
+}
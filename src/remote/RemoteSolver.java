@@ -1,45 +1,63 @@
 package remote;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+import game.Color;
 import main.Parameters;
-import search.Node;
-import search.RemoteSearch;
+import search.RemoteProtocol;
 import search.Search;
+import search.SearchOptions;
 
 /**
- * This class is used on remote machines. It receives a
- * node remotely and finds a solution based on that node and
- * then sends the solution node back to the server.
+ * This class is used on remote machines. It receives
+ * leaves remotely and finds a solution based on each leaf and
+ * then sends the solution's moves back to the server.
  * 
  * @author Gage Davidson
  */
 class RemoteSolver {
 	
+	private static final int PREFETCH_JOBS = 1; // jobs requested beyond one per core
+	
 	private RemoteSolver() {
 	}
 	
 	/**
-	 * @param unusedArgs command line arguments (unused)
+	 * @param args command line arguments; only -host and -port are used,
+	 * since the server sends the rest
 	 */
-	public static void main(String[] unusedArgs) {
+	public static void main(String[] args) {
+		Parameters.setParameters(args);
+		
+		String host = Parameters.remoteHost();
+		int port = Parameters.port();
+		int cores = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(cores);
+		ExecutorService runners = Executors.newFixedThreadPool(cores);
+		ScheduledExecutorService heart = Executors.newSingleThreadScheduledExecutor();
+		
 		while (true) {
-			try (Socket socket = new Socket(RemoteSearch.HOST, RemoteSearch.PORT);
-					ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-					ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-				
-				communicateServer(out, in);
-				
+			try {
+				serve(host, port, cores, pool, runners, heart, new LongAdder());
 			} catch (UnknownHostException ex) {
 				System.out.println("Unknown host: " + ex.getMessage());
 			} catch (IOException ex) {
 				System.out.println("IOException: " + ex.getMessage());
-			} catch (ClassNotFoundException ex) {
-				System.out.println("Class not found: " + ex.getMessage());
 			}
 			
 			try {
@@ -51,29 +69,291 @@ class RemoteSolver {
 	}
 	
 	/**
-	 * Does the communication with the server. In the process it finds
-	 * the solution to the node.
-	 * @param out oos
-	 * @param in ois
-	 * @throws ClassNotFoundException
+	 * Connects to the server and solves its jobs until it stops, sending
+	 * heartbeats all the while.
+	 * @param host address of the server
+	 * @param port port of the server
+	 * @param cores number of cores searching jobs
+	 * @param pool pool every job is searched on
+	 * @param runners threads running the jobs
+	 * @param heart thread sending heartbeats
+	 * @param busy total time spent searching jobs, in nanoseconds
+	 * @throws IOException if the connection fails
+	 */
+	static void serve(String host, int port, int cores, ForkJoinPool pool, ExecutorService runners,
+			ScheduledExecutorService heart, LongAdder busy) throws IOException {
+		try (Socket socket = new Socket(host, port);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+			
+			socket.setTcpNoDelay(true);
+			
+			ScheduledFuture<?> heartbeat = heart.scheduleAtFixedRate(() -> beat(out),
+					RemoteProtocol.HEARTBEAT_MILLIS, RemoteProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+			
+			try {
+				communicateServer(out, in, cores, pool, runners, busy);
+			} finally {
+				heartbeat.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Does the communication with the server. The solver registers once
+	 * and stays connected for every problem the server starts, until the
+	 * server stops. It requests a job for each of its cores and
+	 * {@link #PREFETCH_JOBS} more, then another job each time one is
+	 * finished, so the next job is already waiting when a core frees up.
+	 * Every job is searched on the same pool.
+	 * When a new problem starts, the jobs left of the last one are
+	 * cancelled and the problem's options are read once they are done.
+	 * A problem whose parameters are invalid is reported to the server,
+	 * and its jobs are answered without solutions.
+	 * Better solutions are reported while jobs run, and the fewest moves
+	 * found by any solver are used to prune every job.
+	 * @param out stream to the server
+	 * @param in stream from the server
+	 * @param cores number of cores searching jobs
+	 * @param pool pool every job is searched on
+	 * @param runners threads running the jobs
+	 * @param busy total time spent searching jobs, in nanoseconds
 	 * @throws IOException
 	 */
-	private static void communicateServer(ObjectOutputStream out, ObjectInputStream in)
-			throws ClassNotFoundException, IOException {
-		// get and set parameters
-		String[] args = (String[]) in.readObject();
-		Parameters.setParameters(args);
-		System.out.println("Parameters set");
+	private static void communicateServer(DataOutputStream out, DataInputStream in, int cores,
+			ForkJoinPool pool, ExecutorService runners, LongAdder busy) throws IOException {
+		synchronized (out) {
+			RemoteProtocol.writeHeader(out);
+			RemoteProtocol.writeHello(out, cores);
+			RemoteProtocol.writeRequest(out, cores + PREFETCH_JOBS);
+		}
+		RemoteProtocol.readHeader(in);
+		
+		RemoteProtocol.Setup setup = null;
+		SearchOptions options = null;
+		ConcurrentHashMap<Integer, Running> jobs = new ConcurrentHashMap<>(); // jobs received and not yet finished
+		AtomicInteger bound = new AtomicInteger(Integer.MAX_VALUE); // fewest moves found by any solver
+		
+		try {
+			for (;;) {
+				byte type = RemoteProtocol.readType(in);
+				
+				if (type == RemoteProtocol.SETUP) {
+					setup = RemoteProtocol.readSetup(in);
+					
+					awaitJobs(jobs);
+					bound.set(Integer.MAX_VALUE);
+					
+					try {
+						options = Parameters.getSearchOptions(setup.args);
+						System.out.println("Problem " + setup.problem + " set up");
+					} catch (IllegalArgumentException ex) {
+						options = null;
+						System.out.println("Problem " + setup.problem + " can't be run: " + ex.getMessage());
+						
+						synchronized (out) {
+							RemoteProtocol.writeError(out, setup.problem, ex.getMessage());
+						}
+					}
+				} else if (type == RemoteProtocol.JOB) {
+					if (setup == null)
+						throw new IOException("Job received before any problem");
+					
+					RemoteProtocol.Job job = RemoteProtocol.readJob(in);
+					Color[][] board = setup.board;
+					SearchOptions jobOptions = options;
+					Running running = new Running();
+					
+					jobs.put(job.id, running);
+					runners.execute(() -> runJob(out, job, board, jobOptions, running, pool, jobs, bound, busy));
+				} else if (type == RemoteProtocol.CANCEL) {
+					Running running = jobs.get(RemoteProtocol.readInt(in));
+					
+					if (running != null)
+						running.cancel();
+				} else if (type == RemoteProtocol.BOUND) {
+					int moves = RemoteProtocol.readInt(in);
+					
+					bound.accumulateAndGet(moves, Math::min);
+					
+					for (Running running : jobs.values())
+						running.setBound(bound.get());
+				} else if (type == RemoteProtocol.DONE) {
+					System.out.println("Server stopped");
+					return;
+				} else {
+					throw new IOException("Unexpected message " + type);
+				}
+			}
+		} finally {
+			awaitJobs(jobs);
+		}
+	}
+	
+	/**
+	 * Cancels every job still running or waiting to run, and waits for
+	 * them to finish.
+	 * @param jobs jobs not yet finished, by job id
+	 */
+	private static void awaitJobs(ConcurrentHashMap<Integer, Running> jobs) {
+		synchronized (jobs) {
+			for (Running running : jobs.values())
+				running.cancel();
+			
+			while (! jobs.isEmpty()) {
+				try {
+					jobs.wait();
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends a heartbeat to the server, which renews the lease on the
+	 * solver's jobs.
+	 * @param out stream to the server
+	 */
+	private static void beat(DataOutputStream out) {
+		try {
+			synchronized (out) {
+				RemoteProtocol.writeHeartbeat(out);
+			}
+		} catch (IOException ex) {
+		}
+	}
+	
+	/**
+	 * Reports a better solution to the server, unless a solution with as
+	 * few moves is already known.
+	 * @param out stream to the server
+	 * @param jobId id of the job which found the solution
+	 * @param moves moves of the solution
+	 * @param bound fewest moves found by any solver
+	 */
+	private static void report(DataOutputStream out, int jobId, Color[] moves, AtomicInteger bound) {
+		if (bound.getAndAccumulate(moves.length, Math::min) <= moves.length)
+			return;
+		
+		try {
+			synchronized (out) {
+				RemoteProtocol.writeImproved(out, new RemoteProtocol.Result(jobId, moves, 0, 0));
+			}
+		} catch (IOException ex) {
+			System.out.println("IOException while reporting solution: " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Searches a job, sends its solution to the server and requests
+	 * another job. The job's search is only made here, once a runner is
+	 * free, so jobs waiting to run hold no nodes or transposition table.
+	 * A job cancelled before it starts, of a problem which can't be run,
+	 * or whose search fails, is answered without a solution.
+	 * @param out stream to the server
+	 * @param job job to search
+	 * @param board root board of the job's problem
+	 * @param options options of the job's problem, or null if they are invalid
+	 * @param running state of the job shared with the reader
+	 * @param pool pool every job is searched on
+	 * @param jobs jobs not yet finished, by job id
+	 * @param bound fewest moves found by any solver
+	 * @param busy total time spent searching jobs, in nanoseconds
+	 */
+	private static void runJob(DataOutputStream out, RemoteProtocol.Job job, Color[][] board, SearchOptions options,
+			Running running, ForkJoinPool pool, ConcurrentHashMap<Integer, Running> jobs, AtomicInteger bound, LongAdder busy) {
+		long start = System.nanoTime();
+		Color[] moves = null;
+		long nodes = 0;
+		
+		try {
+			if (options != null && ! running.cancelled) {
+				Search search = new Search(board, job.prefix, pool, options);
+				
+				search.setSolutionListener(solution -> report(out, job.id, solution, bound));
+				running.start(search);
+				search.setBound(bound.get()); // after the search is shared, so no bound is missed
+				
+				System.out.println("Job " + job.id + " received; running search");
+				search.run();
+				
+				moves = search.getSolutionLeaf().getMoveSequence();
+				nodes = search.getNodesMade();
+			}
+		} catch (RuntimeException ex) {
+			System.out.println("Job " + job.id + " failed: " + ex);
+		} finally {
+			busy.add(System.nanoTime() - start);
+			send(out, new RemoteProtocol.Result(job.id, moves, nodes, (System.nanoTime() - start) / 1000000));
+			
+			synchronized (jobs) { // only once the result is written, so the connection isn't closed under it
+				jobs.remove(job.id);
+				jobs.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Sends a job's result to the server and requests another job.
+	 * @param out stream to the server
+	 * @param result result of the job
+	 */
+	private static void send(DataOutputStream out, RemoteProtocol.Result result) {
+		try {
+			synchronized (out) {
+				RemoteProtocol.writeResult(out, result);
+				RemoteProtocol.writeRequest(out, 1);
+			}
+		} catch (IOException ex) {
+			System.out.println("IOException while sending solution: " + ex.getMessage());
+			return;
+		}
+		
+		System.out.println("Solution of job " + result.jobId + " sent to server");
+	}
+	
+	/**
+	 * A job received from the server, which may still be waiting for a
+	 * runner. Cancels and bounds reach its search once it has one.
+	 */
+	private static class Running {
 		
-		// receive initial node and find solution
-		Node leafNode = (Node) in.readObject();
-		Search search = new Search(leafNode);
-		System.out.println("Node received; running search");
-		search.run();
+		volatile boolean cancelled;
+		private volatile Search search; // null until the job starts
 		
-		// send solution to server
-		Node solutionLeaf = search.getSolutionLeaf();
-		out.writeObject(solutionLeaf);
-		System.out.println("Solution leaf sent to server");
+		/**
+		 * Gives the job its search, which is cancelled at once if the job
+		 * was cancelled while it was being made.
+		 * @param search search of the job
+		 */
+		void start(Search search) {
+			this.search = search;
+			
+			if (cancelled)
+				search.cancel();
+		}
+		
+		/**
+		 * Cancels the job, whether or not it has started.
+		 */
+		void cancel() {
+			cancelled = true;
+			
+			Search current = search;
+			
+			if (current != null)
+				current.cancel();
+		}
+		
+		/**
+		 * @param moves fewest moves found by any solver
+		 */
+		void setBound(int moves) {
+			Search current = search;
+			
+			if (current != null)
+				current.setBound(moves);
+		}
 	}
 }
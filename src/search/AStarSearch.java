@@ -0,0 +1,134 @@
+package search;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import game.BitBoard;
+import game.Color;
+import main.Parameters;
+
+/**
+ * This class finds a solution with the fewest possible moves using A*.
+ * Nodes are expanded in order of moves taken plus
+ * {@link BitBoard#lowerBound()}, which never overestimates the moves
+ * left, so the first goal node expanded is an optimal solution.
+ *
+ * States are identified by their Zobrist hash. Two different states
+ * sharing a hash is possible but vanishingly unlikely at 64 bits.
+ *
+ * @author Gage Davidson
+ */
+public class AStarSearch implements Runnable {
+	
+	private final Node root;
+	private Node solutionLeaf;
+	private int nodesExpanded;
+	
+	/**
+	 * @param board board to solve
+	 */
+	public AStarSearch(Color[][] board) {
+		root = new Node(null);
+		root.id = -1;
+		root.parent = null;
+		root.move = null;
+		root.board = new BitBoard(board);
+		root.moves = 0;
+		root.fitness = root.board.fitness();
+		root.goal = root.board.goalBoard();
+	}
+	
+	/**
+	 * Runs the search.
+	 */
+	@Override
+	public void run() {
+		PriorityQueue<Entry> open = new PriorityQueue<>();
+		HashMap<Long, Integer> fewestMoves = new HashMap<>(); // fewest moves each state was reached in
+		int nameGenerator = 0;
+		
+		open.add(new Entry(root));
+		fewestMoves.put(root.board.hash(), 0);
+		
+		while (! open.isEmpty()) {
+			Node node = open.poll().node;
+			
+			if (node.goal) {
+				solutionLeaf = node;
+				break;
+			}
+			
+			if (fewestMoves.get(node.board.hash()) < node.moves)
+				continue;
+			
+			node.generateChildren();
+			++nodesExpanded;
+			
+			int made = 0, hits = 0; // counted for the search's telemetry
+			
+			for (Node child : node.children) {
+				if (child == null)
+					continue;
+				
+				++made;
+				
+				Integer moves = fewestMoves.get(child.board.hash());
+				
+				if (moves != null && moves <= child.moves) {
+					++hits;
+					continue;
+				}
+				
+				child.id = nameGenerator++;
+				fewestMoves.put(child.board.hash(), child.moves);
+				open.add(new Entry(child));
+			}
+			
+			SearchTelemetry.INSTANCE.expanded(made, made, hits);
+			node.children = null;
+		}
+		
+		System.out.printf("Search is complete. Optimal solution has %d moves (%d nodes expanded)\n",
+				solutionLeaf.moves, nodesExpanded);
+		
+		if (Parameters.displaySolution())
+			solutionLeaf.displaySolution();
+	}
+	
+	/**
+	 * @return leaf node of the solution
+	 */
+	public Node getSolutionLeaf() {
+		return solutionLeaf;
+	}
+	
+	/**
+	 * @return number of nodes expanded by the search
+	 */
+	public int getNodesExpanded() {
+		return nodesExpanded;
+	}
+	
+	/**
+	 * A node in the open list, ordered by its estimated total moves.
+	 * Ties go to the node with more moves, which is closer to a goal.
+	 */
+	static class Entry implements Comparable<Entry> {
+		
+		final Node node;
+		final int estimate; // moves plus lower bound on moves left
+		
+		Entry(Node node) {
+			this.node = node;
+			this.estimate = node.moves + node.board.lowerBound();
+		}
+		
+		@Override
+		public int compareTo(Entry other) {
+			if (estimate != other.estimate)
+				return Integer.compare(estimate, other.estimate);
+			
+			return Integer.compare(other.node.moves, node.moves);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package search;
+
+import java.util.PriorityQueue;
+
+/**
+ * Collects the best nodes at the edge of a search window. Only the
+ * given number of nodes is ever held: a bounded heap keeps the worst
+ * kept node on top, and once the beam is full nodes which can't beat it
+ * are turned away without taking the lock.
+ *
+ * @author Gage Davidson
+ */
+class Beam {
+	
+	private final int width;
+	private final Evaluator evaluator;
+	private final PriorityQueue<Scored> heap; // worst kept node on top
+	private volatile long threshold; // score to beat once the beam is full
+	private volatile boolean full;
+	
+	/**
+	 * @param width number of nodes to keep
+	 * @param evaluator evaluator to score nodes with
+	 */
+	Beam(int width, Evaluator evaluator) {
+		this.width = Math.max(width, 1);
+		this.evaluator = evaluator;
+		heap = new PriorityQueue<>(this.width);
+	}
+	
+	/**
+	 * Offers a node to the beam. It is kept if the beam isn't full or if
+	 * it scores higher than the worst node kept.
+	 * @param node node to offer
+	 */
+	void offer(Node node) {
+		long score = evaluator.score(node);
+		
+		if (full && score <= threshold)
+			return;
+		
+		synchronized (this) {
+			if (heap.size() == width) {
+				if (score <= heap.peek().score)
+					return;
+				
+				heap.poll();
+			}
+			
+			heap.add(new Scored(node, score));
+			
+			if (heap.size() == width) {
+				threshold = heap.peek().score;
+				full = true;
+			}
+		}
+	}
+	
+	/**
+	 * Removes every node from the beam.
+	 * @return nodes kept, best first
+	 */
+	synchronized Node[] drain() {
+		Node[] nodes = new Node[heap.size()];
+		
+		for (int i = nodes.length - 1; i >= 0; --i)
+			nodes[i] = heap.poll().node;
+		
+		full = false;
+		
+		return nodes;
+	}
+	
+	/**
+	 * A node and its score, ordered worst first.
+	 */
+	private static class Scored implements Comparable<Scored> {
+		
+		final Node node;
+		final long score;
+		
+		Scored(Node node, long score) {
+			this.node = node;
+			this.score = score;
+		}
+		
+		@Override
+		public int compareTo(Scored other) {
+			return Long.compare(score, other.score);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package search;
+
+/**
+ * Scores the nodes competing for a place in the search beam. Nodes with
+ * higher scores are kept.
+ *
+ * @author Gage Davidson
+ */
+public interface Evaluator {
+	
+	/**
+	 * Prefers the nodes with the most flooded cells.
+	 */
+	Evaluator FITNESS = node -> node.getFitness();
+	
+	/**
+	 * Prefers the nodes with the fewest estimated moves left, breaking
+	 * ties by the most flooded cells.
+	 */
+	Evaluator ESTIMATE = node -> -((long) node.getBoard().lowerBound() << 32) + node.getFitness();
+	
+	/**
+	 * @param node node to score
+	 * @return score of the node
+	 */
+	long score(Node node);
+}
@@ -1,27 +1,25 @@
 package search;
 
-import java.io.IOException;
-import java.io.Serializable;
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
 
-import game.Board;
+import game.BitBoard;
 import game.Color;
-import game.SearchBoard;
-import main.Parameters;
 
 /**
  * A node of the tree made from searching.
  * 
  * @author Gage Davidson
  */
-public class Node implements Serializable {
+public class Node {
 	
 	int id;
-	char suit;
+	int index; // index in the search's node arena
+	int job; // id of the remote job the node belongs to, or 0
 	Node parent;
 	Node[] children;
 	Color move;
-	Color[][] board;
+	BitBoard board;
 	int moves;
 	int fitness;
 	boolean goal;
@@ -33,103 +31,222 @@ public class Node implements Serializable {
 	}
 	
 	/**
-	 * Generates all this node's children.
+	 * Generates all this node's children. Every move is evaluated in a
+	 * single expansion of the board, and at the edge of the search window
+	 * of a single-node beam which keeps the fittest node only the fittest
+	 * child is built since no other child could be kept. A beam scored by
+	 * another evaluator may keep a less fit child, so every child is built.
+	 * Children whose state was already reached in as few moves are pruned.
+	 * Children made by a search are recorded in its node arena instead of
+	 * being linked to this node.
 	 */
 	void generateChildren() {
-		children = new Node[Parameters.gameColors()];
-		SearchBoard searchBoard = new SearchBoard(board);
+		children = new Node[Color.COLORS.length];
+		BitBoard.Expansion expansion = board.expand();
 		
-		for (int color = 0; color < Parameters.gameColors(); ++color) {
+		int fittestMove = -1;
+		int made = 0, probes = 0, hits = 0; // counted for the search's telemetry
+		
+		if (search != null && search.fittestOnly && moves >= search.permittedSearchDepth - 1)
+			fittestMove = fittestMove(expansion);
+		
+		for (int color = 0; color < Color.COLORS.length; ++color) {
 			Color colorMove = Color.COLORS[color];
 			
-			if (searchBoard.isMoveValid(colorMove)) {
-				Node node = new Node(search);
-				if (search != null) node.id = search.nameGenerator.getAndIncrement();
-				node.suit = suit;
-				node.parent = this;
-				node.move = colorMove;
-				node.board = Board.applyMove(board, colorMove);
-				node.moves = moves + 1;
-				node.fitness = new SearchBoard(node.board).fitness();
-				node.goal = Board.goalBoard(node.board);
+			if (! expansion.isMoveValid(colorMove))
+				continue;
+				
+			if (fittestMove != -1 && color != fittestMove)
+				continue;
+			
+			if (fittestMove == -1 && search != null) {
+				++probes;
 				
-				children[color] = node;
+				if (! search.transpositions.visit(expansion.hash(colorMove), moves + 1)) {
+					++hits;
+					continue;
+				}
 			}
+			
+			Node node = new Node(search);
+			node.job = job;
+			node.move = colorMove;
+			node.board = board.applyMove(expansion, colorMove);
+			node.moves = moves + 1;
+			node.fitness = expansion.fitness(colorMove);
+			node.goal = expansion.goalBoard(colorMove);
+			
+			if (search != null)
+				node.index = search.arena.add(index, colorMove, node.moves, node.fitness);
+			else
+				node.parent = this;
+			
+			children[color] = node;
+			++made;
+		}
+		
+		if (search != null) {
+			search.expanded.increment();
+			SearchTelemetry.INSTANCE.expanded(made, probes, hits);
 		}
 		
 		board = null;
 	}
 	
+	/**
+	 * Determines which move of an expansion is fittest.
+	 * @param expansion expansion of this node's board
+	 * @return color index of the fittest move, or -1 if there are no moves
+	 */
+	static int fittestMove(BitBoard.Expansion expansion) {
+		int fittest = -1;
+		
+		for (int color = 0; color < Color.COLORS.length; ++color) {
+			Color colorMove = Color.COLORS[color];
+			
+			if (! expansion.isMoveValid(colorMove))
+				continue;
+			
+			if (fittest == -1 || expansion.fitness(colorMove) > expansion.fitness(Color.COLORS[fittest]))
+				fittest = color;
+		}
+		
+		return fittest;
+	}
+	
 	/**
 	 * Recursively call this on all children (and their children, subsequently)
 	 * until the search depth has been reached. Once search depth is reached or
-	 * goal board is found, add best child (or this node) to fittest list.
-	 * @param exec executor to use
+	 * goal board is found, offer the children to the beam (or this node as a
+	 * goal). Children which can't beat the incumbent solution are dropped.
+	 * Children further than the sequential cutoff from the edge of the search
+	 * window are forked as tasks in the current fork/join pool; closer ones
+	 * are run in place.
 	 */
-	void runChildren(ExecutorService exec) {
+	void runChildren() {
 		if (goal) {
-			search.completedNodes.add(this);
+			search.offerGoal(this);
 			return;
 		}
 		
 		if (moves >= search.permittedSearchDepth - 1) {
-			Node fittestChild = fittestChild();
-			
-			if (fittestChild != null)
-				search.completedNodes.add(fittestChild);
+			for (Node child : children) {
+				if (child == null)
+					continue;
+				
+				if (child.goal)
+					search.offerGoal(child);
+				else if (! search.cannotImprove(child))
+					search.beam.offer(child);
+			}
 			
 			return;
 		}
 		
-		for (int child = 0; child < children.length; ++child) {
-			final int _child = child;
+		if (search.permittedSearchDepth - moves <= search.sequentialCutoff) {
+			for (Node child : children)
+				if (child != null)
+					child.generateAndRunChildren();
 			
-			if (children[_child] == null)
-				continue;
-			
-			search.searchCounter.incrementAndGet();
-			
-			exec.submit(new Runnable() {
-				@Override
-				public void run() {
-					generateAndRunChildren(exec, children[_child]);
-				}
-			});
+			return;
+		}
+		
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(children.length);
+		
+		for (Node child : children)
+			if (child != null)
+				tasks.add(ForkJoinTask.adapt(child::generateAndRunChildren));
+		
+		SearchTelemetry.INSTANCE.forked(tasks.size());
+		try {
+			ForkJoinTask.invokeAll(tasks);
+		} finally {
+			SearchTelemetry.INSTANCE.forked(-tasks.size());
 		}
 	}
 	
 	/**
-	 * Generates this node's children and runs them.
-	 * @param exec executor to use
-	 * @param node node to generate and run children for
+	 * Generates this node's children and runs them, unless this node can't
+	 * beat the incumbent solution or the search was cancelled. The children
+	 * are let go once they have run, since the node arena already records
+	 * them.
 	 */
-	static void generateAndRunChildren(ExecutorService exec, Node node) {
-		node.generateChildren();
-		node.runChildren(exec);
-		node.search.searchCounter.decrementAndGet();
+	void generateAndRunChildren() {
+		if (search.cancelled || (! goal && search.cannotImprove(this)))
+			return;
+		
+		generateChildren();
+		runChildren();
+		
+		children = null;
 	}
 	
 	/**
-	 * Determines which of this node's children is fittest.
-	 * @return fittest child
+	 * Builds the path of nodes reached by playing a sequence of moves from
+	 * a board. The nodes don't belong to a search.
+	 * @param board board to start from
+	 * @param moves valid moves to play
+	 * @return node reached by the last move, linked to the root through
+	 * its parents
 	 */
-	private Node fittestChild() {
-		Node fittest = null;
+	static Node replay(BitBoard board, Color[] moves) {
+		Node node = new Node(null);
+		node.id = -1;
+		node.board = board;
+		node.fitness = board.fitness();
+		node.goal = board.goalBoard();
 		
-		for (int child = 0; child < children.length; ++child) {
-			if (fittest == null) {
-				fittest = children[child];
-				continue;
-			}
+		for (Color move : moves) {
+			Node child = new Node(null);
+			child.id = node.id + 1;
+			child.parent = node;
+			child.move = move;
+			child.board = node.board.applyMove(move);
+			child.moves = node.moves + 1;
+			child.fitness = child.board.fitness();
+			child.goal = child.board.goalBoard();
 			
-			if (children[child] == null)
-				continue;
-			
-			if (children[child].fitness > fittest.fitness)
-				fittest = children[child];
+			node.board = null;
+			node = child;
 		}
 		
-		return fittest;
+		return node;
+	}
+	
+	/**
+	 * @return moves leading from the root to this node
+	 */
+	public Color[] getMoveSequence() {
+		Color[] sequence = new Color[moves];
+		Node node = this;
+		
+		for (int i = moves - 1; i >= 0; --i) {
+			sequence[i] = node.move;
+			node = node.parent;
+		}
+		
+		return sequence;
+	}
+	
+	/**
+	 * @return moves taken to reach this node
+	 */
+	public int getMoves() {
+		return moves;
+	}
+	
+	/**
+	 * @return fitness of this node's board
+	 */
+	public int getFitness() {
+		return fitness;
+	}
+	
+	/**
+	 * @return this node's board, or null once its children are generated
+	 */
+	public BitBoard getBoard() {
+		return board;
 	}
 	
 	/**
@@ -152,11 +269,19 @@ public class Node implements Serializable {
 	@Override
 	public String toString() {
 		if (parent == null)
-			return String.format("(%c%d | root %s %s %d %d)",
-					suit, id, getChildrenString(), move, moves, fitness);
-			
-		return String.format("(%c%d | %d %s %s %d %d)",
-				suit, id, parent.id, getChildrenString(), move, moves, fitness);
+			return String.format("(%s | root %s %s %d %d)",
+					getLabel(), getChildrenString(), move, moves, fitness);
+		
+		return String.format("(%s | %d %s %s %d %d)",
+				getLabel(), parent.id, getChildrenString(), move, moves, fitness);
+	}
+	
+	/**
+	 * @return this node's id, after the id of its remote job if it
+	 * belongs to one (ex. "12:3")
+	 */
+	private String getLabel() {
+		return job == 0 ? String.valueOf(id) : job + ":" + id;
 	}
 	
 	/**
@@ -176,27 +301,4 @@ public class Node implements Serializable {
 		
 		return s.substring(0, s.length() - 1) + "]";
 	}
-	
-	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-		out.writeInt(id);
-		out.writeChar(suit);
-		out.writeObject(parent);
-		out.writeObject(children);
-		out.writeObject(move);
-		out.writeObject(board);
-		out.writeInt(moves);
-		out.writeInt(fitness);
-		out.writeBoolean(goal);
-	}
-	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-		id = in.readInt();
-		suit = in.readChar();
-		parent = (Node) in.readObject();
-		children = (Node[]) in.readObject();
-		move = (Color) in.readObject();
-		board = (Color[][]) in.readObject();
-		moves = in.readInt();
-		fitness = in.readInt();
-		goal = in.readBoolean();
-	}
 }
@@ -0,0 +1,177 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import game.Color;
+
+/**
+ * A compact store of every node a search has made, referenced by index.
+ * Each node takes 11 bytes: its parent's index, its move, its number of
+ * moves and its fitness, each kept in its own array. Boards and children
+ * aren't stored, since only the nodes being expanded need them, and the
+ * path to any node can be rebuilt from its parent indices.
+ *
+ * The arrays grow in fixed-size chunks so adding a node never copies the
+ * nodes before it. Chunks can be allocated off the heap, which keeps
+ * millions of nodes out of the garbage collector's way.
+ *
+ * Nodes may be added by any number of threads at once.
+ *
+ * @author Gage Davidson
+ */
+class NodeArena {
+	
+	static final int BYTES_PER_NODE = Integer.BYTES + Byte.BYTES + Short.BYTES + Integer.BYTES;
+	
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	private final boolean offHeap;
+	private final AtomicInteger size;
+	private volatile Chunk[] chunks; // replaced, never modified, when a chunk is added
+	
+	/**
+	 * @param offHeap true to allocate the chunks off the heap
+	 */
+	NodeArena(boolean offHeap) {
+		this.offHeap = offHeap;
+		size = new AtomicInteger();
+		chunks = new Chunk[0];
+	}
+	
+	/**
+	 * Adds a node.
+	 * @param parent index of the node's parent, or -1 for a root
+	 * @param move color used as the node's move, or null for a root
+	 * @param moves moves taken to reach the node
+	 * @param fitness fitness of the node's board
+	 * @return index of the node
+	 */
+	int add(int parent, Color move, int moves, int fitness) {
+		int index = size.getAndIncrement();
+		Chunk chunk = chunk(index >>> CHUNK_BITS);
+		int offset = index & CHUNK_MASK;
+		
+		chunk.parent.put(offset, parent);
+		chunk.move.put(offset, (byte) (move == null ? -1 : move.ordinal()));
+		chunk.moves.put(offset, (short) moves);
+		chunk.fitness.put(offset, fitness);
+		
+		return index;
+	}
+	
+	/**
+	 * Finds a chunk, adding chunks up to it if they don't exist yet.
+	 * @param number number of the chunk
+	 * @return the chunk
+	 */
+	private Chunk chunk(int number) {
+		Chunk[] current = chunks;
+		
+		if (number < current.length)
+			return current[number];
+		
+		synchronized (this) {
+			current = chunks;
+			
+			if (number >= current.length) {
+				Chunk[] grown = new Chunk[number + 1];
+				
+				System.arraycopy(current, 0, grown, 0, current.length);
+				
+				for (int i = current.length; i < grown.length; ++i)
+					grown[i] = new Chunk(offHeap);
+				
+				chunks = grown;
+				current = grown;
+			}
+			
+			return current[number];
+		}
+	}
+	
+	/**
+	 * @param index index of a node
+	 * @return index of the node's parent, or -1 for a root
+	 */
+	int parent(int index) {
+		return chunks[index >>> CHUNK_BITS].parent.get(index & CHUNK_MASK);
+	}
+	
+	/**
+	 * @param index index of a node
+	 * @return color used as the node's move, or null for a root
+	 */
+	Color move(int index) {
+		byte move = chunks[index >>> CHUNK_BITS].move.get(index & CHUNK_MASK);
+		
+		return move == -1 ? null : Color.COLORS[move];
+	}
+	
+	/**
+	 * @param index index of a node
+	 * @return moves taken to reach the node
+	 */
+	int moves(int index) {
+		return chunks[index >>> CHUNK_BITS].moves.get(index & CHUNK_MASK);
+	}
+	
+	/**
+	 * @param index index of a node
+	 * @return fitness of the node's board
+	 */
+	int fitness(int index) {
+		return chunks[index >>> CHUNK_BITS].fitness.get(index & CHUNK_MASK);
+	}
+	
+	/**
+	 * @return number of nodes added
+	 */
+	int size() {
+		return size.get();
+	}
+	
+	/**
+	 * @return bytes taken by the nodes added, not counting the rest of
+	 * their last chunk
+	 */
+	long usedBytes() {
+		return (long) size.get() * BYTES_PER_NODE;
+	}
+	
+	/**
+	 * @return bytes allocated for the nodes
+	 */
+	long bytes() {
+		return (long) chunks.length * CHUNK_SIZE * BYTES_PER_NODE;
+	}
+	
+	/**
+	 * One fixed-size piece of each array.
+	 */
+	private static class Chunk {
+		
+		final IntBuffer parent;
+		final ByteBuffer move;
+		final ShortBuffer moves;
+		final IntBuffer fitness;
+		
+		Chunk(boolean offHeap) {
+			parent = allocate(CHUNK_SIZE * Integer.BYTES, offHeap).asIntBuffer();
+			move = allocate(CHUNK_SIZE * Byte.BYTES, offHeap);
+			moves = allocate(CHUNK_SIZE * Short.BYTES, offHeap).asShortBuffer();
+			fitness = allocate(CHUNK_SIZE * Integer.BYTES, offHeap).asIntBuffer();
+		}
+		
+		private static ByteBuffer allocate(int bytes, boolean offHeap) {
+			ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+			
+			return buffer.order(ByteOrder.nativeOrder());
+		}
+	}
+}
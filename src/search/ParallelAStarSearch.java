@@ -0,0 +1,250 @@
+package search;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import game.BitBoard;
+import game.Color;
+import main.Parameters;
+
+/**
+ * This class finds a solution with the fewest possible moves using
+ * hash-distributed A* across several threads. Every state is owned by
+ * one worker, chosen by its Zobrist hash, which keeps the state's open
+ * and closed entries. Generated children are sent to their owner through
+ * the owner's lock-free inbox.
+ *
+ * Any goal found becomes the incumbent solution, and nodes which can't
+ * beat it are dropped. The search ends when no worker has a node which
+ * could beat the incumbent and no node is in flight, at which point the
+ * incumbent is optimal since {@link BitBoard#lowerBound()} never
+ * overestimates the moves left.
+ *
+ * @author Gage Davidson
+ */
+public class ParallelAStarSearch implements Runnable {
+	
+	private static final long IDLE_PARK_NANOS = 50_000;
+	
+	private final Node root;
+	private final Worker[] workers;
+	private final AtomicLong work; // busy workers plus nodes in flight
+	private final AtomicReference<Node> incumbent; // best goal node found
+	private final LongAdder nodesExpanded;
+	private final AtomicInteger nameGenerator;
+	private final int id = SearchTelemetry.INSTANCE.nextSearchId(); // tells searches apart in the telemetry
+	private Node solutionLeaf;
+	
+	/**
+	 * @param board board to solve
+	 */
+	public ParallelAStarSearch(Color[][] board) {
+		root = new Node(null);
+		root.id = -1;
+		root.parent = null;
+		root.move = null;
+		root.board = new BitBoard(board);
+		root.moves = 0;
+		root.fitness = root.board.fitness();
+		root.goal = root.board.goalBoard();
+		
+		workers = new Worker[Parameters.maxThreads()];
+		work = new AtomicLong();
+		incumbent = new AtomicReference<>();
+		nodesExpanded = new LongAdder();
+		nameGenerator = new AtomicInteger();
+		
+		for (int i = 0; i < workers.length; ++i)
+			workers[i] = new Worker();
+	}
+	
+	/**
+	 * Runs the search on one thread per worker and waits for it to end.
+	 */
+	@Override
+	public void run() {
+		if (root.goal)
+			incumbent.set(root);
+		else
+			send(root);
+		
+		Thread[] threads = new Thread[workers.length];
+		
+		for (int i = 0; i < workers.length; ++i) {
+			threads[i] = new Thread(workers[i], "hda-worker-" + i);
+			threads[i].start();
+		}
+		
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		SearchTelemetry.INSTANCE.forget(id);
+		solutionLeaf = incumbent.get();
+		
+		System.out.printf("Search is complete. Optimal solution has %d moves (%d nodes expanded)\n",
+				solutionLeaf.moves, nodesExpanded.sum());
+		
+		if (Parameters.displaySolution())
+			solutionLeaf.displaySolution();
+	}
+	
+	/**
+	 * Sends a node to the worker owning its state.
+	 * @param node node to send
+	 */
+	private void send(Node node) {
+		long hash = node.board.hash();
+		Worker owner = workers[(int) Math.floorMod(hash ^ (hash >>> 32), (long) workers.length)];
+		
+		work.incrementAndGet();
+		owner.inbox.add(node);
+	}
+	
+	/**
+	 * Makes a goal node the incumbent if it has fewer moves.
+	 * @param goal goal node
+	 */
+	private void offerSolution(Node goal) {
+		for (;;) {
+			Node current = incumbent.get();
+			
+			if (current != null && current.moves <= goal.moves)
+				return;
+			
+			if (incumbent.compareAndSet(current, goal)) {
+				SearchTelemetry.INSTANCE.improved(id, goal.moves);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return moves of the incumbent solution, or max int if there is none
+	 */
+	private int incumbentMoves() {
+		Node current = incumbent.get();
+		
+		return current == null ? Integer.MAX_VALUE : current.moves;
+	}
+	
+	/**
+	 * @return leaf node of the solution
+	 */
+	public Node getSolutionLeaf() {
+		return solutionLeaf;
+	}
+	
+	/**
+	 * @return number of nodes expanded by the search
+	 */
+	public long getNodesExpanded() {
+		return nodesExpanded.sum();
+	}
+	
+	/**
+	 * One thread of the search. A worker counts itself in
+	 * {@link ParallelAStarSearch#work} while it has nodes which could beat
+	 * the incumbent, and a received node stays counted until it is in the
+	 * open list, so the count only reaches zero once the search is over.
+	 */
+	private class Worker implements Runnable {
+		
+		final ConcurrentLinkedQueue<Node> inbox = new ConcurrentLinkedQueue<>();
+		final PriorityQueue<AStarSearch.Entry> open = new PriorityQueue<>();
+		final HashMap<Long, Integer> fewestMoves = new HashMap<>(); // fewest moves each state was reached in
+		boolean busy;
+		
+		@Override
+		public void run() {
+			for (;;) {
+				Node received;
+				
+				while ((received = inbox.poll()) != null) {
+					if (! busy) {
+						busy = true;
+						work.incrementAndGet();
+					}
+					
+					receive(received);
+					work.decrementAndGet();
+				}
+				
+				AStarSearch.Entry next = open.peek();
+				
+				if (next != null && next.estimate < incumbentMoves()) {
+					expand(open.poll().node);
+					continue;
+				}
+				
+				if (busy) {
+					busy = false;
+					work.decrementAndGet();
+				}
+				
+				if (work.get() == 0)
+					return;
+				
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+		
+		/**
+		 * Adds a node to the open list unless its state was already reached
+		 * in as few moves.
+		 * @param node node to add
+		 */
+		private void receive(Node node) {
+			Integer moves = fewestMoves.get(node.board.hash());
+			
+			if (moves != null && moves <= node.moves)
+				return;
+			
+			fewestMoves.put(node.board.hash(), node.moves);
+			open.add(new AStarSearch.Entry(node));
+		}
+		
+		/**
+		 * Expands a node and sends its children to their owners.
+		 * @param node node to expand
+		 */
+		private void expand(Node node) {
+			if (fewestMoves.get(node.board.hash()) < node.moves)
+				return;
+			
+			node.generateChildren();
+			nodesExpanded.increment();
+			
+			int made = 0; // counted for the search's telemetry
+			
+			for (Node child : node.children) {
+				if (child == null)
+					continue;
+				
+				++made;
+				child.id = nameGenerator.getAndIncrement();
+				
+				if (child.goal) {
+					offerSolution(child);
+					continue;
+				}
+				
+				if (child.moves + 1 < incumbentMoves())
+					send(child);
+			}
+			
+			SearchTelemetry.INSTANCE.expanded(made, 0, 0);
+			node.children = null;
+		}
+	}
+}
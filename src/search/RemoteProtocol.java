@@ -0,0 +1,476 @@
+package search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import game.Color;
+import game.Corpus;
+
+/**
+ * The binary protocol spoken between {@link RemoteSearch} and its remote
+ * solvers. Both sides open a connection by sending the magic number and
+ * protocol version, and a connection speaking a different version is
+ * refused.
+ *
+ * Every message after that is framed as its type, the length of its
+ * payload and the payload. A solver says once how many cores it has and
+ * stays connected for any number of problems. The server sends the
+ * program parameters and the packed root board of each problem as it
+ * starts, and every job after that belongs to that problem. The solver
+ * requests jobs whenever it has cores free, and each job is sent as only
+ * the moves leading from the root to its leaf. A solver answers each
+ * job with the moves of its solution from the root and a few statistics.
+ * The server may cancel a running job, and tells the solver when it
+ * stops serving problems.
+ *
+ * A solver sends a heartbeat every {@link #HEARTBEAT_MILLIS}, so the
+ * server can tell a solver which is busy from one which is gone.
+ *
+ * While a job runs, the solver reports each better solution it finds,
+ * and the server tells every solver the fewest moves found so far for
+ * the current problem so they can prune against it.
+ *
+ * A solver which can't run a problem, such as because its parameters
+ * are invalid, tells the server why instead of leaving the connection.
+ *
+ * @author Gage Davidson
+ */
+public class RemoteProtocol {
+	
+	public static final int MAGIC = 0x464C4F44; // "FLOD"
+	public static final int VERSION = 6;
+	public static final int HEADER_BYTES = 8; // magic number and version
+	public static final int FRAME_BYTES = 5; // type and payload length of a message
+	public static final int MAX_PAYLOAD_BYTES = 1 << 20;
+	public static final long HEARTBEAT_MILLIS = 1000; // time between a solver's heartbeats
+	
+	public static final byte SETUP = 1;
+	public static final byte JOB = 2;
+	public static final byte RESULT = 3;
+	public static final byte HELLO = 4;
+	public static final byte REQUEST = 5;
+	public static final byte CANCEL = 6;
+	public static final byte DONE = 7;
+	public static final byte IMPROVED = 8;
+	public static final byte BOUND = 9;
+	public static final byte HEARTBEAT = 10;
+	public static final byte ERROR = 11;
+	
+	/**
+	 * Cannot be instantiated.
+	 */
+	private RemoteProtocol() {
+	}
+	
+	/**
+	 * Sends the magic number and protocol version.
+	 * @param out stream to the other side
+	 * @throws IOException
+	 */
+	public static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+	}
+	
+	/**
+	 * Reads the other side's magic number and protocol version.
+	 * @param in stream from the other side
+	 * @throws IOException if the other side doesn't speak this version
+	 */
+	public static void readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a Flood connection");
+		
+		int version = in.readInt();
+		
+		if (version != VERSION)
+			throw new IOException("Unsupported protocol version " + version);
+	}
+	
+	/**
+	 * Starts a problem: sends its program parameters and root board.
+	 * @param out stream to the solver
+	 * @param problem problem id
+	 * @param args program parameters
+	 * @param board root board
+	 * @throws IOException
+	 */
+	public static void writeSetup(DataOutputStream out, int problem, String[] args, Color[][] board) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		
+		payload.writeInt(problem);
+		payload.writeShort(args.length);
+		
+		for (String arg : args)
+			payload.writeUTF(arg);
+		
+		Corpus.writeBoard(payload, board);
+		writeFrame(out, SETUP, bytes);
+	}
+	
+	/**
+	 * @param in stream from the server, after a {@link #SETUP} type
+	 * @return problem id, program parameters and root board
+	 * @throws IOException
+	 */
+	public static Setup readSetup(DataInputStream in) throws IOException {
+		int problem = in.readInt();
+		String[] args = new String[in.readUnsignedShort()];
+		
+		for (int i = 0; i < args.length; ++i)
+			args[i] = in.readUTF();
+		
+		return new Setup(problem, args, Corpus.readBoard(in));
+	}
+	
+	/**
+	 * Sends a job.
+	 * @param out stream to the solver
+	 * @param id job id
+	 * @param prefix moves from the root board to the job's leaf
+	 * @throws IOException
+	 */
+	public static void writeJob(DataOutputStream out, int id, Color[] prefix) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		
+		payload.writeInt(id);
+		writeMoves(payload, prefix);
+		writeFrame(out, JOB, bytes);
+	}
+	
+	/**
+	 * @param in stream from the server, after a {@link #JOB} type
+	 * @return the job
+	 * @throws IOException
+	 */
+	public static Job readJob(DataInputStream in) throws IOException {
+		int id = in.readInt();
+		
+		return new Job(id, readMoves(in));
+	}
+	
+	/**
+	 * Sends a job's result.
+	 * @param out stream to the server
+	 * @param result result of the job
+	 * @throws IOException
+	 */
+	public static void writeResult(DataOutputStream out, Result result) throws IOException {
+		writeResult(out, RESULT, result);
+	}
+	
+	/**
+	 * Reports a better solution found by a job which is still running.
+	 * @param out stream to the server
+	 * @param result solution found so far
+	 * @throws IOException
+	 */
+	public static void writeImproved(DataOutputStream out, Result result) throws IOException {
+		writeResult(out, IMPROVED, result);
+	}
+	
+	/**
+	 * Sends a {@link #RESULT} or {@link #IMPROVED} message.
+	 * @param out stream to the server
+	 * @param type message type
+	 * @param result result to send
+	 * @throws IOException
+	 */
+	private static void writeResult(DataOutputStream out, byte type, Result result) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		
+		payload.writeInt(result.jobId);
+		payload.writeBoolean(result.moves != null);
+		
+		if (result.moves != null)
+			writeMoves(payload, result.moves);
+		
+		payload.writeLong(result.nodes);
+		payload.writeLong(result.millis);
+		writeFrame(out, type, bytes);
+	}
+	
+	/**
+	 * @param in stream from the solver, after a {@link #RESULT} or
+	 * {@link #IMPROVED} type
+	 * @return result of a job
+	 * @throws IOException
+	 */
+	public static Result readResult(DataInputStream in) throws IOException {
+		int jobId = in.readInt();
+		Color[] moves = in.readBoolean() ? readMoves(in) : null;
+		long nodes = in.readLong();
+		long millis = in.readLong();
+		
+		return new Result(jobId, moves, nodes, millis);
+	}
+	
+	/**
+	 * Sends the number of cores a solver has.
+	 * @param out stream to the server
+	 * @param cores number of cores
+	 * @throws IOException
+	 */
+	public static void writeHello(DataOutputStream out, int cores) throws IOException {
+		writeInt(out, HELLO, cores);
+	}
+	
+	/**
+	 * Requests more jobs.
+	 * @param out stream to the server
+	 * @param count number of jobs wanted
+	 * @throws IOException
+	 */
+	public static void writeRequest(DataOutputStream out, int count) throws IOException {
+		writeInt(out, REQUEST, count);
+	}
+	
+	/**
+	 * Cancels a running job. The solver still answers it with the best
+	 * solution it found.
+	 * @param out stream to the solver
+	 * @param jobId id of the job
+	 * @throws IOException
+	 */
+	public static void writeCancel(DataOutputStream out, int jobId) throws IOException {
+		writeInt(out, CANCEL, jobId);
+	}
+	
+	/**
+	 * Sends the fewest moves of any solution found so far.
+	 * @param out stream to the solver
+	 * @param moves moves of the best solution
+	 * @throws IOException
+	 */
+	public static void writeBound(DataOutputStream out, int moves) throws IOException {
+		writeInt(out, BOUND, moves);
+	}
+	
+	/**
+	 * Tells the server the solver is still alive.
+	 * @param out stream to the server
+	 * @throws IOException
+	 */
+	public static void writeHeartbeat(DataOutputStream out) throws IOException {
+		writeFrame(out, HEARTBEAT, new ByteArrayOutputStream());
+	}
+	
+	/**
+	 * Tells the server a problem can't be run by the solver.
+	 * @param out stream to the server
+	 * @param problem id of the problem
+	 * @param message why the problem can't be run
+	 * @throws IOException
+	 */
+	public static void writeError(DataOutputStream out, int problem, String message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		
+		payload.writeInt(problem);
+		payload.writeUTF(message);
+		writeFrame(out, ERROR, bytes);
+	}
+	
+	/**
+	 * @param in stream from the solver, after an {@link #ERROR} message's type
+	 * @return problem which can't be run and why
+	 * @throws IOException
+	 */
+	public static Failure readError(DataInputStream in) throws IOException {
+		int problem = in.readInt();
+		
+		return new Failure(problem, in.readUTF());
+	}
+	
+	/**
+	 * Tells a solver the server has stopped serving problems.
+	 * @param out stream to the solver
+	 * @throws IOException
+	 */
+	public static void writeDone(DataOutputStream out) throws IOException {
+		writeFrame(out, DONE, new ByteArrayOutputStream());
+	}
+	
+	/**
+	 * Reads the payload of a {@link #HELLO}, {@link #REQUEST},
+	 * {@link #CANCEL} or {@link #BOUND} message, which is a single number.
+	 * @param in stream from the other side, after the message's type
+	 * @return number sent
+	 * @throws IOException
+	 */
+	public static int readInt(DataInputStream in) throws IOException {
+		return in.readInt();
+	}
+	
+	/**
+	 * Sends a message whose payload is a single number.
+	 * @param out stream to the other side
+	 * @param type message type
+	 * @param value number to send
+	 * @throws IOException
+	 */
+	private static void writeInt(DataOutputStream out, byte type, int value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		new DataOutputStream(bytes).writeInt(value);
+		writeFrame(out, type, bytes);
+	}
+	
+	/**
+	 * Sends a message.
+	 * @param out stream to the other side
+	 * @param type message type
+	 * @param payload the message's payload
+	 * @throws IOException
+	 */
+	private static void writeFrame(DataOutputStream out, byte type, ByteArrayOutputStream payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.size());
+		payload.writeTo(out);
+		out.flush();
+	}
+	
+	/**
+	 * Reads the type and length of the next message. Its payload is read
+	 * next by the reader for its type.
+	 * @param in stream from the other side
+	 * @return type of the message
+	 * @throws IOException
+	 */
+	public static byte readType(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		int length = in.readInt();
+		
+		if (length < 0 || length > MAX_PAYLOAD_BYTES)
+			throw new IOException("Invalid message length " + length);
+		
+		return type;
+	}
+	
+	/**
+	 * Reads the type and length of the next message, which must be of the
+	 * given type.
+	 * @param in stream from the other side
+	 * @param type expected message type
+	 * @throws IOException if the message is of another type
+	 */
+	public static void expect(DataInputStream in, byte type) throws IOException {
+		byte actual = readType(in);
+		
+		if (actual != type)
+			throw new IOException("Expected message " + type + " but received " + actual);
+	}
+	
+	/**
+	 * Writes a sequence of moves, one byte per move.
+	 * @param out stream to write to
+	 * @param moves moves to write
+	 * @throws IOException
+	 */
+	private static void writeMoves(DataOutputStream out, Color[] moves) throws IOException {
+		out.writeShort(moves.length);
+		
+		for (Color move : moves)
+			out.writeByte(move.ordinal());
+	}
+	
+	/**
+	 * @param in stream to read from
+	 * @return sequence of moves read
+	 * @throws IOException
+	 */
+	private static Color[] readMoves(DataInputStream in) throws IOException {
+		Color[] moves = new Color[in.readUnsignedShort()];
+		
+		for (int i = 0; i < moves.length; ++i)
+			moves[i] = color(in.readUnsignedByte());
+		
+		return moves;
+	}
+	
+	/**
+	 * @param ordinal ordinal read from the wire
+	 * @return color with the ordinal
+	 * @throws IOException if there is no such color
+	 */
+	private static Color color(int ordinal) throws IOException {
+		if (ordinal >= Color.COLORS.length)
+			throw new IOException("Invalid color " + ordinal);
+		
+		return Color.COLORS[ordinal];
+	}
+	
+	/**
+	 * Program parameters and root board of a problem, sent as it starts.
+	 */
+	public static class Setup {
+		
+		public final int problem;
+		public final String[] args;
+		public final Color[][] board;
+		
+		Setup(int problem, String[] args, Color[][] board) {
+			this.problem = problem;
+			this.args = args;
+			this.board = board;
+		}
+	}
+	
+	/**
+	 * A problem a solver can't run and why.
+	 */
+	public static class Failure {
+		
+		public final int problem;
+		public final String message;
+		
+		Failure(int problem, String message) {
+			this.problem = problem;
+			this.message = message;
+		}
+	}
+	
+	/**
+	 * A leaf of the search tree to be searched by a solver.
+	 */
+	public static class Job {
+		
+		public final int id;
+		public final Color[] prefix; // moves from the root board to the leaf
+		
+		Job(int id, Color[] prefix) {
+			this.id = id;
+			this.prefix = prefix;
+		}
+	}
+	
+	/**
+	 * The outcome of a job.
+	 */
+	public static class Result {
+		
+		public final int jobId;
+		public final Color[] moves; // solution moves from the root board, or null if none was found
+		public final long nodes; // nodes made by the search
+		public final long millis; // time taken by the search
+		
+		/**
+		 * @param jobId id of the job
+		 * @param moves solution moves from the root board, or null
+		 * @param nodes nodes made by the search
+		 * @param millis time taken by the search
+		 */
+		public Result(int jobId, Color[] moves, long nodes, long millis) {
+			this.jobId = jobId;
+			this.moves = moves;
+			this.nodes = nodes;
+			this.millis = millis;
+		}
+	}
+}
@@ -1,39 +1,136 @@
 package search;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import game.BitBoard;
 import game.Color;
-import game.SearchBoard;
 import main.Parameters;
 
 /**
  * This class is run on a local machine and handles the
  * search for the solution. The search is done remotely
  * on other computers.
+ *
+ * Solvers are spoken to with {@link RemoteProtocol}: each is sent the
+ * root board once and its leaves as the moves leading to them, and
+ * answers with the moves of its solutions.
+ *
+ * The tree is split into many more leaves than there are solvers, and
+ * each solver stays connected and pulls jobs whenever it has cores free,
+ * so no solver sits idle while leaves are left. Once no leaves are left,
+ * a job which has run for long is split into its children and cancelled
+ * on its solver, so idle solvers can share its work.
+ *
+ * Solvers report better solutions as soon as they find them, and the
+ * fewest moves found so far are sent to every solver to prune with.
+ * Jobs whose leaf can't lead to a solution with fewer moves, by
+ * {@link BitBoard#lowerBound()}, are dropped from the queue or
+ * cancelled, so the search ends as soon as the best solution is proven
+ * as good as any left.
+ *
+ * Every solver is served by one thread running a non-blocking event
+ * loop, so thousands of solvers can be connected at once. Messages are
+ * framed in direct buffers, and the solution is handed out through a
+ * future once the last job is finished.
+ *
+ * Each solver holds a lease on its jobs which it renews with every
+ * message, and it sends heartbeats while it has nothing else to say. A
+ * solver which disconnects or lets its lease expire has its jobs put
+ * back at the front of the queue. Once no job is left to send or split,
+ * a solver with a free core is sent a copy of the job which has run the
+ * longest, and whichever copy finishes first is kept.
+ *
+ * The server's own machine runs jobs too, unless -lw is 0. Its solver
+ * takes jobs from the same queue as remote solvers but searches them in
+ * place, so a solve goes on before any remote solver has connected.
+ *
+ * The server can solve any number of boards, one after another, each
+ * with its own program parameters. Solvers stay connected from one
+ * board to the next and are sent each board as it starts.
  * 
  * @author Gage Davidson
  */
 public class RemoteSearch implements Runnable {
 	
-	public static final String HOST = "129.3.20.26";
-	public static final int PORT = 2600;
+	private static final int MIN_LEAVES = 64; // fewest leaves to split the tree into
+	private static final int LEAVES_PER_CORE = 8; // leaves to split the tree into for each solver core
+	private static final long STEAL_MILLIS = 2000; // time after which a running job may be split
+	private static final long LEASE_MILLIS = 5 * RemoteProtocol.HEARTBEAT_MILLIS; // silence after which a solver's jobs are taken back
+	private static final long HANDSHAKE_MILLIS = LEASE_MILLIS; // time a solver has to say how many cores it has
+	private static final int MAX_COPIES = 2; // solvers which may run the same job at once
+	private static final int SELECT_TIMEOUT = 250; // time between checks for stealing
+	private static final long CLOSE_MILLIS = 2000; // time allowed to tell solvers no jobs are left
+	private static final int BUFFER_BYTES = 1024; // starting size of each connection's buffers
 	
+	private ArrayDeque<Problem> problems; // problems not yet started
+	private Problem problem; // problem being solved, or null
+	private boolean stopping; // no more problems will be submitted
+	private int nextProblemId;
+	private Color[][] board; // board of the current problem
 	private Node root;
-	private Node[] leaves;
-	private AtomicInteger leafIndex;
-	private ConcurrentLinkedQueue<Node> completedNodes;
-	private AtomicInteger startedSolvers, finishedSolvers;
+	private ArrayDeque<Job> queue; // jobs not yet sent
+	private HashSet<Job> running; // jobs sent and not yet finished
+	private HashMap<Integer, Job> jobs; // every job of the current problem, by id
+	private ArrayList<Client> clients; // clients which said how many cores they have
+	private ArrayList<Connection> handshakes; // connections which haven't yet said how many cores they have
+	private LocalSolver local; // solver on this machine, or null
+	private int nextJobId;
+	private int bestMoves; // fewest moves of any solution found for the current problem
+	private volatile Selector selector;
+	private ConcurrentLinkedQueue<Connection> writable; // connections with messages to write
+	private int solvers; // connected solvers
+	private CompletableFuture<Node> solution; // solution of the board given to the constructor
 	private Node solutionLeaf;
 	
+	/**
+	 * Serves the problems submitted with {@link #submit(Color[][], String[])}
+	 * until the server is shut down.
+	 */
+	public RemoteSearch() {
+		problems = new ArrayDeque<>();
+		queue = new ArrayDeque<>();
+		running = new HashSet<>();
+		jobs = new HashMap<>();
+		clients = new ArrayList<>();
+		handshakes = new ArrayList<>();
+		nextJobId = 1; // 0 is left for nodes outside any job
+		writable = new ConcurrentLinkedQueue<>();
+	}
+	
+	/**
+	 * Solves a single board with the program parameters, then stops.
+	 * @param board board to solve
+	 */
 	public RemoteSearch(Color[][] board) {
-		initRoot(board);
+		this();
+		solution = submit(board, Parameters.getArgs());
+		shutdown();
 	}
 	
 	/**
@@ -45,202 +142,1070 @@ public class RemoteSearch implements Runnable {
 		root.id = -1;
 		root.parent = null;
 		root.move = null;
-		root.board = board;
+		root.board = new BitBoard(board);
 		root.moves = 0;
 		root.goal = false;
+		root.fitness = root.board.fitness();
+	}
+	
+	/**
+	 * Queues a board to be solved once the boards before it are.
+	 * @param board board to solve
+	 * @param args program parameters to solve it with
+	 * @return future completed with the solution leaf
+	 * @throws IllegalArgumentException if the parameters are invalid
+	 */
+	public synchronized CompletableFuture<Node> submit(Color[][] board, String[] args) {
+		if (stopping)
+			throw new IllegalStateException("The server is shut down");
 		
-		SearchBoard searchBoard = new SearchBoard(root.board);
-		root.fitness = searchBoard.fitness();
+		Problem submitted = new Problem(nextProblemId++, board, args);
+		
+		problems.add(submitted);
+		wakeup();
+		
+		return submitted.solution;
+	}
+	
+	/**
+	 * Stops the server once every board submitted is solved.
+	 */
+	public synchronized void shutdown() {
+		stopping = true;
+		wakeup();
 	}
 	
 	@Override
 	public void run() {
-		leaves = generateLeaves();
-		System.out.println(leaves.length + " initial leaves");
-		
-		leafIndex = new AtomicInteger();
-		completedNodes = new ConcurrentLinkedQueue<>();
-		startedSolvers = new AtomicInteger();
-		finishedSolvers = new AtomicInteger();
-		
-		try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-			while (startedSolvers.get() < leaves.length)
-				handleClient(serverSocket.accept());
+		try (Selector selector = Selector.open();
+				ServerSocketChannel server = ServerSocketChannel.open()) {
+			this.selector = selector;
+			
+			server.bind(new InetSocketAddress(Parameters.bindAddress(), Parameters.port()));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			System.out.println("Listening on " + server.getLocalAddress());
+			
+			if (Parameters.localWorkers() > 0)
+				startLocal(Parameters.localWorkers());
+			
+			dispatch();
 			
-			awaitSolvers();
+			while (isServing())
+				select(server);
+			
+			stop();
+			
+			long closing = System.currentTimeMillis() + CLOSE_MILLIS;
+			
+			while (isWriting() && System.currentTimeMillis() < closing)
+				select(server);
+			
+			for (SelectionKey key : selector.keys())
+				key.channel().close();
 		} catch (IOException ex) {
 			System.out.println("IOException: " + ex.getMessage());
+			fail(ex);
+			return;
 		}
 		
 		System.out.println("Server stopped");
 		
-		solutionLeaf = fittestMovesNode();
+		if (solution == null)
+			return;
+		
+		solutionLeaf = solution.join();
 		
 		System.out.println("\nBest solution:");
 		solutionLeaf.displaySolution();
 	}
 	
+	/**
+	 * @return true until the server is shut down and every problem is
+	 * solved
+	 */
+	private synchronized boolean isServing() {
+		return ! stopping || problem != null || ! problems.isEmpty();
+	}
+	
+	/**
+	 * Fails every problem not yet solved once the server can't go on.
+	 * @param ex cause of the failure
+	 */
+	private synchronized void fail(IOException ex) {
+		if (problem != null)
+			problem.solution.completeExceptionally(ex);
+		
+		for (Problem queued : problems)
+			queued.solution.completeExceptionally(ex);
+		
+		problem = null;
+		problems.clear();
+		
+		if (local != null)
+			local.done();
+	}
+	
+	/**
+	 * Starts the solver on this machine. It takes jobs from the same queue
+	 * as remote solvers.
+	 * @param threads number of jobs it runs at once
+	 */
+	private synchronized void startLocal(int threads) {
+		local = new LocalSolver(threads);
+		
+		hello(local, threads);
+		request(local, threads);
+	}
+	
+	/**
+	 * Starts a problem. Its leaves are queued as jobs, and its board is
+	 * sent to every client. The program parameters are left as they are,
+	 * since each problem's searches are run with its own options.
+	 * @param next problem to start
+	 */
+	private void start(Problem next) {
+		problem = next;
+		board = next.board;
+		bestMoves = Integer.MAX_VALUE;
+		
+		initRoot(board);
+		
+		long started = System.nanoTime();
+		Node[] leaves = generateLeaves();
+		System.out.printf("Problem %d has %d initial leaves, made in %d ms\n",
+				next.id, leaves.length, (System.nanoTime() - started) / 1000000);
+		
+		for (Node leaf : leaves)
+			addJob(leaf);
+		
+		for (Client client : clients)
+			client.setup(next);
+	}
+	
+	/**
+	 * Completes the current problem with its best solution. Its jobs
+	 * which are still running on clients are let go.
+	 */
+	private void finish() {
+		System.out.printf("Problem %d is solved in %d moves\n", problem.id, bestMoves);
+		
+		problem.solution.complete(problem.solutionLeaf);
+		problem = null;
+		jobs.clear();
+	}
+	
+	/**
+	 * Fails a problem which a solver can't run, such as because its
+	 * parameters are invalid there. The problem's jobs are let go and the
+	 * next problem is started.
+	 * @param failure problem which can't be run and why
+	 */
+	private synchronized void abort(RemoteProtocol.Failure failure) {
+		System.out.printf("A solver can't run problem %d: %s\n", failure.problem, failure.message);
+		
+		if (problem == null || problem.id != failure.problem)
+			return;
+		
+		for (Job job : running)
+			cancel(job);
+		
+		running.clear();
+		queue.clear();
+		jobs.clear();
+		
+		problem.solution.completeExceptionally(new IllegalArgumentException(failure.message));
+		problem = null;
+		dispatch();
+	}
+	
+	/**
+	 * @return true if a message to a client is not yet written
+	 */
+	private synchronized boolean isWriting() {
+		for (Client client : clients)
+			if (client.isWriting())
+				return true;
+		
+		return false;
+	}
+	
+	/**
+	 * Tells every client the server has stopped.
+	 */
+	private synchronized void stop() {
+		for (Client client : clients)
+			client.done();
+	}
+	
 	/**
 	 * Generates the initial leaves which will be sent to the
-	 * remote solvers. This array will be length 4+.
+	 * remote solvers. The tree is expanded a layer at a time, each layer
+	 * in parallel, until there are at least {@link #LEAVES_PER_CORE}
+	 * leaves for every core of the solvers connected, and at least
+	 * {@link #MIN_LEAVES}, or only goals are left.
+	 * A leaf whose board was already reached, by a transposition of its
+	 * moves, is dropped, since the other leaf searches the same subtree.
+	 * The leaves are ordered by the estimated cost of their subtrees, the
+	 * costliest first, so the longest jobs don't start last.
 	 * @return array of initial leaves to be sent to remote solvers
 	 */
 	private Node[] generateLeaves() {
-		root.generateChildren();
+		int target = Math.max(MIN_LEAVES, LEAVES_PER_CORE * cores());
+		HashSet<Long> reached = new HashSet<>();
+		ArrayList<Node> leaves = new ArrayList<>();
 		
-		Node[] leaves = getLeaves();
+		reached.add(root.board.hash());
+		leaves.add(root);
 		
-		do {
-			for (int i = 0; i < leaves.length; ++i)
-				leaves[i].generateChildren();
+		while (leaves.size() < target) {
+			List<Node> expanding = leaves.stream().filter(leaf -> ! leaf.goal).collect(Collectors.toList());
+			
+			if (expanding.isEmpty())
+				break;
+			
+			expanding.parallelStream().forEach(Node::generateChildren);
 			
-			leaves = getLeaves();
-		} while (leaves.length < 4);
+			ArrayList<Node> next = new ArrayList<>();
+			
+			for (Node leaf : leaves) {
+				if (leaf.goal) {
+					next.add(leaf);
+					continue;
+				}
+				
+				for (Node child : leaf.children)
+					if (child != null && reached.add(child.board.hash()))
+						next.add(child);
+			}
+			
+			leaves = next;
+		}
 		
-		setSuit(leaves);
-		return leaves;
+		leaves.sort(Comparator.comparingInt(RemoteSearch::estimatedCost).reversed());
+		
+		return leaves.toArray(new Node[0]);
 	}
 	
 	/**
-	 * Sets the suit of all the nodes in an array based on their
-	 * position in the array.
-	 * @param leaves nodes to suit
+	 * Estimates the cost of searching a leaf's subtree by the fewest moves
+	 * left to solve its board, since the subtree grows with each of them.
+	 * @param leaf leaf with its board
+	 * @return estimated cost
 	 */
-	private static void setSuit(Node[] leaves) {
-		for (int i = 0; i < leaves.length; ++i)
-			leaves[i].suit = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".charAt(i);
+	private static int estimatedCost(Node leaf) {
+		return leaf.board.lowerBound();
 	}
 	
 	/**
-	 * Generates an array of nodes which are the leaves of the tree.
-	 * @return array of leaves
+	 * @return cores of every solver connected
 	 */
-	private Node[] getLeaves() {
-		ArrayList<Node> leaves = new ArrayList<>();
-		getLeaves(leaves, root);
+	private int cores() {
+		int cores = 0;
+		
+		for (Client client : clients)
+			cores += client.cores;
+		
+		return cores;
+	}
+	
+	/**
+	 * Waits for the next events and handles them, then sends any jobs
+	 * which can be sent.
+	 * @param server channel accepting solvers
+	 * @throws IOException if the server channel fails
+	 */
+	private void select(ServerSocketChannel server) throws IOException {
+		selector.select(SELECT_TIMEOUT);
+		
+		for (SelectionKey key : selector.selectedKeys()) {
+			if (key.isAcceptable()) {
+				accept(server);
+				continue;
+			}
+			
+			Connection connection = (Connection) key.attachment();
+			
+			try {
+				if (key.isReadable())
+					read(connection);
+				
+				if (key.isValid() && key.isWritable() && connection.flush())
+					key.interestOps(SelectionKey.OP_READ);
+			} catch (IOException ex) {
+				System.out.println("IOException while handling client: " + ex.getMessage());
+				disconnect(connection);
+			}
+		}
+		
+		selector.selectedKeys().clear();
+		expireLeases();
+		
+		Connection connection;
+		
+		while ((connection = writable.poll()) != null)
+			if (connection.key.isValid())
+				connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		
+		dispatch();
+	}
+	
+	/**
+	 * Accepts a solver. It is sent the current problem once it has said
+	 * how many cores it has.
+	 * @param server channel accepting solvers
+	 * @throws IOException if the server channel fails
+	 */
+	private void accept(ServerSocketChannel server) throws IOException {
+		SocketChannel channel = server.accept();
+		
+		if (channel == null)
+			return;
+		
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		
+		handshakes.add(connection);
+		++solvers;
+		System.out.println("Accepting solver " + solvers + " from " + channel.getRemoteAddress());
+		
+		send(connection, RemoteProtocol::writeHeader);
+	}
+	
+	/**
+	 * Reads what a solver has sent and handles every complete message.
+	 * @param connection connection to the solver
+	 * @throws IOException if the solver disconnected or broke the protocol
+	 */
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.input) == -1)
+			throw new IOException("Solver disconnected");
+		
+		connection.heard = System.currentTimeMillis();
+		
+		connection.input.flip();
+		
+		while (receive(connection))
+			;
+		
+		connection.input.compact();
+	}
+	
+	/**
+	 * Handles the next message in a connection's input, if it has been
+	 * read completely. The input grows to fit a message larger than it.
+	 * @param connection connection to the solver, with its input flipped
+	 * @return true if a message was handled
+	 * @throws IOException if the solver broke the protocol
+	 */
+	private boolean receive(Connection connection) throws IOException {
+		ByteBuffer input = connection.input;
+		
+		if (! connection.greeted) {
+			if (input.remaining() < RemoteProtocol.HEADER_BYTES)
+				return false;
+			
+			RemoteProtocol.readHeader(stream(input, RemoteProtocol.HEADER_BYTES));
+			connection.greeted = true;
+			
+			return true;
+		}
+		
+		if (input.remaining() < RemoteProtocol.FRAME_BYTES)
+			return false;
+		
+		int length = input.getInt(input.position() + 1);
+		
+		if (length < 0 || length > RemoteProtocol.MAX_PAYLOAD_BYTES)
+			throw new IOException("Invalid message length " + length);
+		
+		if (input.remaining() < RemoteProtocol.FRAME_BYTES + length) {
+			if (RemoteProtocol.FRAME_BYTES + length > input.capacity())
+				connection.input = ByteBuffer.allocateDirect(RemoteProtocol.FRAME_BYTES + length).put(input).flip();
+			
+			return false;
+		}
+		
+		DataInputStream in = stream(input, RemoteProtocol.FRAME_BYTES + length);
+		byte type = RemoteProtocol.readType(in);
+		
+		if (type == RemoteProtocol.HELLO) {
+			handshakes.remove(connection);
+			hello(connection, RemoteProtocol.readInt(in));
+		}
+		else if (type == RemoteProtocol.REQUEST)
+			request(connection, RemoteProtocol.readInt(in));
+		else if (type == RemoteProtocol.RESULT)
+			complete(connection, RemoteProtocol.readResult(in));
+		else if (type == RemoteProtocol.HEARTBEAT)
+			;
+		else if (type == RemoteProtocol.IMPROVED)
+			improve(RemoteProtocol.readResult(in));
+		else if (type == RemoteProtocol.ERROR)
+			abort(RemoteProtocol.readError(in));
+		else
+			throw new IOException("Unexpected message " + type);
+		
+		return true;
+	}
+	
+	/**
+	 * Takes bytes from a buffer as a stream to read a message from.
+	 * @param buffer buffer to take the bytes from
+	 * @param length number of bytes to take
+	 * @return stream of the bytes
+	 */
+	private static DataInputStream stream(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		
+		buffer.get(bytes);
+		
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+	
+	/**
+	 * Queues a message to a solver. It is written by the event loop.
+	 * @param connection connection to the solver
+	 * @param message message to send
+	 */
+	private void send(Connection connection, Message message) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		try {
+			message.writeTo(new DataOutputStream(bytes));
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex); // writing to memory can't fail
+		}
+		
+		connection.append(bytes.toByteArray());
+		writable.add(connection);
+		wakeup();
+	}
+	
+	/**
+	 * Wakes the event loop to handle what was queued for it, if it is
+	 * running.
+	 */
+	private void wakeup() {
+		Selector current = selector;
+		
+		if (current != null)
+			current.wakeup();
+	}
+	
+	/**
+	 * Registers a solver once it has said how many cores it has, and sends
+	 * it the current problem.
+	 * @param client the solver
+	 * @param cores number of cores the solver has
+	 */
+	private synchronized void hello(Client client, int cores) {
+		System.out.println("Solver has " + cores + " cores");
+		client.cores = cores;
+		clients.add(client);
+		
+		if (problem == null)
+			return;
+		
+		client.setup(problem);
+		
+		if (bestMoves != Integer.MAX_VALUE)
+			client.bound(bestMoves);
+	}
+	
+	/**
+	 * Adds a job for a leaf to the end of the queue, unless it can't beat
+	 * the best solution.
+	 * @param leaf leaf to search, with its board
+	 */
+	private synchronized void addJob(Node leaf) {
+		Job job = new Job(nextJobId++, leaf);
+		
+		leaf.job = job.id;
+		
+		if (job.lowerBound >= bestMoves)
+			return;
+		
+		jobs.put(job.id, job);
+		queue.add(job);
+	}
+	
+	/**
+	 * @return true if every job is finished
+	 */
+	private synchronized boolean isComplete() {
+		return queue.isEmpty() && running.isEmpty();
+	}
+	
+	/**
+	 * Records that a client wants more jobs.
+	 * @param client the client
+	 * @param count number of jobs wanted
+	 */
+	private synchronized void request(Client client, int count) {
+		client.wanted += count;
+		dispatch();
+	}
+	
+	/**
+	 * Records the result of a job. The solution of a job which was split
+	 * or cancelled is still kept. The first copy of a job to finish
+	 * completes it and the other copies are cancelled, so a copy which
+	 * finishes later is only checked for a better solution.
+	 * @param client client which ran the job
+	 * @param result result of the job
+	 */
+	private synchronized void complete(Client client, RemoteProtocol.Result result) {
+		Job job = jobs.get(result.jobId);
+		
+		--client.running;
+		
+		if (job == null)
+			return;
+		
+		if (job.runners.remove(client) && running.remove(job)) {
+			System.out.printf("Job %d searched %d nodes in %d ms\n", job.id, result.nodes, result.millis);
+			cancel(job);
+		}
 		
-		Node[] leavesArray = new Node[leaves.size()];
+		record(job, result.moves);
+		dispatch();
+	}
+	
+	/**
+	 * Records a better solution reported by a running job.
+	 * @param result solution found so far
+	 */
+	private synchronized void improve(RemoteProtocol.Result result) {
+		Job job = jobs.get(result.jobId);
 		
-		for (int i = 0; i < leaves.size(); ++i)
-			leavesArray[i] = leaves.get(i);
+		if (job != null)
+			record(job, result.moves);
 		
-		return leavesArray;
+		dispatch();
 	}
 	
 	/**
-	 * Recursive helper method for finding the leaves of the tree.
-	 * @param nodes list of leaves
-	 * @param node node to look at
+	 * Keeps a solution if it has fewer moves than the best solution. The
+	 * new bound is sent to every client and jobs which can't beat it are
+	 * dropped. Moves which don't flood the board, such as from a faulty
+	 * solver, are rejected.
+	 * @param job job which found the solution
+	 * @param moves moves of the solution, or null if none was found
 	 */
-	private static void getLeaves(ArrayList<Node> nodes, Node node) {
-		if (node.children == null) {
-			nodes.add(node);
+	private void record(Job job, Color[] moves) {
+		if (moves == null || moves.length >= bestMoves)
 			return;
+		
+		Node leaf = Node.replay(new BitBoard(board), moves);
+		
+		if (! leaf.goal) {
+			System.out.printf("Job %d reported %d moves which don't solve the board; rejected\n", job.id, moves.length);
+			return;
+		}
+		
+		leaf.board = null;
+		
+		for (Node node = leaf; node != null; node = node.parent)
+			node.job = job.id;
+		
+		problem.solutionLeaf = leaf;
+		bestMoves = moves.length;
+		System.out.printf("Job %d found a solution with %d moves\n", job.id, bestMoves);
+		
+		for (Client client : clients)
+			client.bound(bestMoves);
+		
+		int pruned = queue.size();
+		queue.removeIf(queued -> queued.lowerBound >= bestMoves);
+		pruned -= queue.size();
+		
+		for (Job other : new ArrayList<>(running)) {
+			if (other.lowerBound >= bestMoves) {
+				running.remove(other);
+				cancel(other);
+				++pruned;
+			}
 		}
 		
-		for (Node n : node.children) {
-			if (n == null)
+		if (pruned > 0)
+			System.out.println(pruned + " jobs can't beat it and were dropped");
+	}
+	
+	/**
+	 * Closes the connection to a client and puts the jobs it was running
+	 * back at the front of the queue, unless another client is running a
+	 * copy of them.
+	 * @param connection connection to the client
+	 */
+	private synchronized void disconnect(Connection connection) {
+		if (! connection.key.isValid())
+			return;
+		
+		connection.close();
+		clients.remove(connection);
+		handshakes.remove(connection);
+		
+		--solvers;
+		System.out.println("Solver disconnected, " + solvers + " left");
+		
+		for (Job job : new ArrayList<>(running)) {
+			if (! job.runners.remove(connection) || ! job.runners.isEmpty())
 				continue;
 			
-			getLeaves(nodes, n);
+			running.remove(job);
+			queue.addFirst(job);
 		}
+		
+		dispatch();
 	}
 	
 	/**
-	 * Accepts a client socket and runs a new thread to
-	 * handle it.
-	 * @param clientSocket client socket
+	 * Disconnects every client which hasn't been heard from within its
+	 * lease, which puts its jobs back in the queue, and every connection
+	 * which hasn't said how many cores it has within the handshake's
+	 * deadline. Heartbeats don't count towards the handshake, so a
+	 * connection can't be kept open without ever taking jobs.
 	 */
-	private void handleClient(Socket clientSocket) {
-		System.out.println("Accepting socket " + clientSocket);
+	private synchronized void expireLeases() {
+		long now = System.currentTimeMillis();
 		
-		startedSolvers.incrementAndGet();
-		System.out.println("Starting solver " + startedSolvers.get());
+		for (Connection connection : new ArrayList<>(handshakes)) {
+			if (now - connection.accepted > HANDSHAKE_MILLIS) {
+				System.out.println("Solver didn't say hello in time");
+				disconnect(connection);
+			}
+		}
 		
-		new Thread(() -> {
-			try (ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
-					ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream())) {
-				
-				communicateClient(out, in);
+		for (Client client : new ArrayList<>(clients)) {
+			if (client instanceof Connection && now - ((Connection) client).heard > LEASE_MILLIS) {
+				System.out.println("Solver's lease expired");
+				disconnect((Connection) client);
+			}
+		}
+	}
+	
+	/**
+	 * Sends queued jobs to the clients which want them, splitting a long
+	 * running job if the queue runs out. Once every job of a problem is
+	 * finished, it is completed and the next problem is started.
+	 */
+	private synchronized void dispatch() {
+		if (problem != null && isComplete())
+			finish();
+		
+		if (problem == null && ! problems.isEmpty() && (local == null || local.running == 0))
+			start(problems.poll());
+		
+		if (problem == null)
+			return;
+		
+		for (Client client : new ArrayList<>(clients)) {
+			while (client.wanted > 0) {
+				Job job;
 				
-			} catch (IOException ex) {
-				System.out.println("IOException while handling client: " + ex.getMessage());
-			} catch (ClassNotFoundException ex) {
-				System.out.println("ClassNotFounException while handling client: " + ex.getMessage());
-			} finally {
-				try {
-					clientSocket.close();
-				} catch (IOException ex) {
-					System.out.println("Failed to close client socket: " + ex.getMessage());
+				if (! queue.isEmpty() || steal()) {
+					job = queue.poll();
+					job.started = System.currentTimeMillis();
+					running.add(job);
+				} else if ((job = speculate(client)) == null) {
+					break;
 				}
+				
+				job.runners.add(client);
+				++client.running;
+				--client.wanted;
+				
+				client.job(job);
 			}
-			
-			finishedSolvers.incrementAndGet();
-			System.out.println(finishedSolvers.get() + " solvers done");
-		}).start();
+		}
 	}
 	
 	/**
-	 * Performs the communication with the client, receiving a
-	 * solution node at the end
-	 * @param out oos
-	 * @param in ois
-	 * @throws IOException
-	 * @throws ClassNotFoundException
+	 * Picks a job for a client with a free core to run a copy of, once no
+	 * job is left to send or split. The job which has run the longest is
+	 * picked, so a slow or stuck client can't hold up the problem.
+	 * @param client the client
+	 * @return job to copy, or null if there is none
 	 */
-	private void communicateClient(ObjectOutputStream out, ObjectInputStream in)
-			throws IOException, ClassNotFoundException {
-		// send program parameters
-		out.writeObject(Parameters.getArgs());
+	private Job speculate(Client client) {
+		if (client.running >= client.cores)
+			return null;
 		
-		// send initial node
-		int leafIndex = this.leafIndex.getAndIncrement();
-		Node leafNode = leaves[leafIndex];
-		out.writeObject(leafNode);
+		Job longest = null;
 		
-		// receive solution node from remote solver
-		Node solutionLeaf = (Node) in.readObject();
-		completedNodes.add(solutionLeaf);
+		for (Job job : running)
+			if (job.runners.size() < MAX_COPIES && ! job.runners.contains(client) &&
+					(longest == null || job.started < longest.started))
+				longest = job;
+		
+		if (longest != null)
+			System.out.printf("Job %d is copied after %d ms\n", longest.id, System.currentTimeMillis() - longest.started);
+		
+		return longest;
+	}
+	
+	/**
+	 * Splits the longest running job into jobs for each of its children
+	 * and cancels it on its client.
+	 * @return true if a job was split
+	 */
+	private boolean steal() {
+		long now = System.currentTimeMillis();
+		Job longest = null;
+		
+		for (Job job : running)
+			if (! job.leaf.goal && now - job.started >= STEAL_MILLIS && (longest == null || job.started < longest.started))
+				longest = job;
+		
+		if (longest == null)
+			return false;
+		
+		running.remove(longest);
+		longest.leaf.generateChildren();
+		
+		for (Node child : longest.leaf.children)
+			if (child != null)
+				addJob(child);
+		
+		System.out.printf("Job %d was split after %d ms\n", longest.id, now - longest.started);
+		cancel(longest);
+		
+		return ! queue.isEmpty();
+	}
+	
+	/**
+	 * Cancels a job on every client running a copy of it.
+	 * @param job job to cancel
+	 */
+	private void cancel(Job job) {
+		for (Client client : job.runners)
+			client.cancel(job.id);
 	}
 	
 	/**
-	 * Waits for all remote solvers to finish.
+	 * @return future completed with the solution leaf of the board given
+	 * to the constructor, or null if problems are submitted instead
 	 */
-	private void awaitSolvers() {
-		while (finishedSolvers.get() < leaves.length) {
+	public CompletableFuture<Node> getSolution() {
+		return solution;
+	}
+	
+	/**
+	 * @return solutionLeaf
+	 */
+	public Node getSolutionLeaf() {
+		return solutionLeaf;
+	}
+	
+	/**
+	 * A board to be solved with its own program parameters.
+	 */
+	private static class Problem {
+		
+		final int id;
+		final Color[][] board;
+		final String[] args;
+		final SearchOptions options;
+		final CompletableFuture<Node> solution;
+		Node solutionLeaf; // best solution found so far
+		
+		Problem(int id, Color[][] board, String[] args) {
+			this.id = id;
+			this.board = board;
+			this.args = args;
+			options = Parameters.getSearchOptions(args);
+			solution = new CompletableFuture<>();
+		}
+	}
+	
+	/**
+	 * A leaf of the tree searched by one solver.
+	 */
+	private static class Job {
+		
+		final int id;
+		final Node leaf;
+		final int lowerBound; // fewest moves any solution through the leaf can have
+		final ArrayList<Client> runners; // clients running a copy of the job
+		long started; // time the job was first sent
+		
+		Job(int id, Node leaf) {
+			this.id = id;
+			this.leaf = leaf;
+			this.lowerBound = leaf.moves + leaf.board.lowerBound();
+			runners = new ArrayList<>(MAX_COPIES);
+		}
+	}
+	
+	/**
+	 * A solver which jobs are handed to.
+	 */
+	private abstract static class Client {
+		
+		int wanted; // jobs requested and not yet sent
+		int cores; // cores the client has
+		int running; // jobs sent and not yet answered
+		
+		/**
+		 * Starts a problem on the client.
+		 * @param problem problem to start
+		 */
+		abstract void setup(Problem problem);
+		
+		/**
+		 * Hands the client a job of the current problem.
+		 * @param job job to run
+		 */
+		abstract void job(Job job);
+		
+		/**
+		 * Cancels a job the client is running.
+		 * @param jobId id of the job
+		 */
+		abstract void cancel(int jobId);
+		
+		/**
+		 * Tells the client the fewest moves of any solution found.
+		 * @param moves moves of the best solution
+		 */
+		abstract void bound(int moves);
+		
+		/**
+		 * Tells the client the server has stopped.
+		 */
+		abstract void done();
+		
+		/**
+		 * @return true if a message to the client is not yet delivered
+		 */
+		abstract boolean isWriting();
+	}
+	
+	/**
+	 * A connected client. Messages to it are queued in its output, which
+	 * the event loop writes whenever the client can take more.
+	 */
+	private class Connection extends Client {
+		
+		final SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer input; // bytes read and not yet handled
+		private ByteBuffer output; // bytes queued and not yet written
+		boolean greeted; // the client's header was read
+		long heard; // time the client last sent anything
+		final long accepted; // time the connection was accepted
+		
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			input = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			output = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			accepted = System.currentTimeMillis();
+			heard = accepted;
+		}
+		
+		@Override
+		void setup(Problem problem) {
+			send(this, out -> RemoteProtocol.writeSetup(out, problem.id, problem.args, problem.board));
+		}
+		
+		@Override
+		void job(Job job) {
+			send(this, out -> RemoteProtocol.writeJob(out, job.id, job.leaf.getMoveSequence()));
+		}
+		
+		@Override
+		void cancel(int jobId) {
+			send(this, out -> RemoteProtocol.writeCancel(out, jobId));
+		}
+		
+		@Override
+		void bound(int moves) {
+			send(this, out -> RemoteProtocol.writeBound(out, moves));
+		}
+		
+		@Override
+		void done() {
+			send(this, RemoteProtocol::writeDone);
+		}
+		
+		/**
+		 * Queues bytes to be written, growing the output if they don't fit.
+		 * @param bytes bytes to queue
+		 */
+		synchronized void append(byte[] bytes) {
+			if (output.remaining() < bytes.length) {
+				int capacity = Math.max(output.capacity() * 2, output.position() + bytes.length);
+				
+				output = ByteBuffer.allocateDirect(capacity).put(output.flip());
+			}
+			
+			output.put(bytes);
+		}
+		
+		/**
+		 * Writes as many queued bytes as the channel takes.
+		 * @return true if every queued byte was written
+		 * @throws IOException if the channel fails
+		 */
+		synchronized boolean flush() throws IOException {
+			output.flip();
+			channel.write(output);
+			output.compact();
+			
+			return output.position() == 0;
+		}
+		
+		@Override
+		synchronized boolean isWriting() {
+			return key.isValid() && output.position() > 0;
+		}
+		
+		/**
+		 * Closes the connection.
+		 */
+		void close() {
+			key.cancel();
+			
 			try {
-				Thread.sleep(500);
-			} catch (InterruptedException ex) {
-				System.out.println("InterruptedException while awaiting solvers: " + ex.getMessage());
+				channel.close();
+			} catch (IOException ex) {
 			}
 		}
 	}
 	
 	/**
-	 * @return fittest node based on moves
+	 * The solver on this machine. Its jobs are searched straight from
+	 * their leaves' moves on a pool shared by every job, without being
+	 * sent anywhere.
 	 */
-	private Node fittestMovesNode() {
-		Node fittest = null;
+	private class LocalSolver extends Client {
+		
+		private final ForkJoinPool pool;
+		private final ExecutorService runners;
+		private final ConcurrentHashMap<Integer, Search> searches; // searches running, by job id
+		private final Set<Integer> cancelled; // jobs cancelled, which may not have a search yet
+		private final AtomicInteger localBound; // fewest moves found for the current problem
+		private volatile Color[][] problemBoard;
+		private volatile SearchOptions problemOptions;
+		
+		/**
+		 * @param threads number of jobs to run at once
+		 */
+		LocalSolver(int threads) {
+			pool = new ForkJoinPool(threads);
+			runners = Executors.newFixedThreadPool(threads);
+			searches = new ConcurrentHashMap<>();
+			cancelled = ConcurrentHashMap.newKeySet();
+			localBound = new AtomicInteger(Integer.MAX_VALUE);
+		}
+		
+		@Override
+		void setup(Problem problem) {
+			problemBoard = problem.board;
+			problemOptions = problem.options;
+			localBound.set(Integer.MAX_VALUE);
+			cancelled.clear();
+		}
 		
-		while (! completedNodes.isEmpty()) {
-			Node node = completedNodes.poll();
+		@Override
+		void job(Job job) {
+			Color[][] jobBoard = problemBoard;
+			SearchOptions jobOptions = problemOptions;
+			Color[] prefix = job.leaf.getMoveSequence();
 			
-			if (fittest == null) {
-				fittest = node;
-				continue;
+			runners.execute(() -> runJob(job.id, jobBoard, jobOptions, prefix));
+		}
+		
+		/**
+		 * Searches a job and completes it. A job whose search fails is
+		 * still completed, without a solution, so the problem can finish.
+		 * @param jobId id of the job
+		 * @param jobBoard root board of the job's problem
+		 * @param jobOptions options of the job's problem
+		 * @param prefix moves from the root board to the job's leaf
+		 */
+		private void runJob(int jobId, Color[][] jobBoard, SearchOptions jobOptions, Color[] prefix) {
+			long start = System.nanoTime();
+			Color[] moves = null;
+			int nodes = 0;
+			
+			try {
+				Search search = new Search(jobBoard, prefix, pool, jobOptions);
+				
+				search.setBound(localBound.get());
+				search.setSolutionListener(solution -> report(jobId, solution));
+				searches.put(jobId, search);
+				
+				if (cancelled.contains(jobId))
+					search.cancel();
+				
+				search.run();
+				moves = search.getSolutionLeaf().getMoveSequence();
+				nodes = search.getNodesMade();
+			} catch (RuntimeException ex) {
+				System.out.println("Local job " + jobId + " failed: " + ex);
+			} finally {
+				searches.remove(jobId);
+				cancelled.remove(jobId);
+				
+				complete(this, new RemoteProtocol.Result(jobId, moves, nodes, (System.nanoTime() - start) / 1000000));
+				request(this, 1);
 			}
+		}
+		
+		/**
+		 * Reports a better solution found by a running job, unless a
+		 * solution with as few moves is already known.
+		 * @param jobId id of the job
+		 * @param moves moves of the solution
+		 */
+		private void report(int jobId, Color[] moves) {
+			if (localBound.getAndAccumulate(moves.length, Math::min) > moves.length)
+				improve(new RemoteProtocol.Result(jobId, moves, 0, 0));
+		}
+		
+		@Override
+		void cancel(int jobId) {
+			cancelled.add(jobId);
 			
-			if (node.moves < fittest.moves)
-				fittest = node;
+			Search search = searches.get(jobId);
+			
+			if (search != null)
+				search.cancel();
 		}
 		
-		return fittest;
+		@Override
+		void bound(int moves) {
+			localBound.accumulateAndGet(moves, Math::min);
+			
+			for (Search search : searches.values())
+				search.setBound(localBound.get());
+		}
+		
+		@Override
+		void done() {
+			for (Search search : searches.values())
+				search.cancel();
+			
+			runners.shutdown();
+			pool.shutdown();
+		}
+		
+		@Override
+		boolean isWriting() {
+			return false;
+		}
 	}
 	
 	/**
-	 * @return solutionLeaf
+	 * A message to be written to a client.
 	 */
-	public Node getSolutionLeaf() {
-		return solutionLeaf;
+	private interface Message {
+		
+		void writeTo(DataOutputStream out) throws IOException;
 	}
 }
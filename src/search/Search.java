@@ -1,198 +1,389 @@
 package search;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
+import game.BitBoard;
 import game.Color;
-import game.SearchBoard;
-import main.Parameters;
 
 /**
- * This class handles the search for the solution.
+ * This class handles the search for the solution. Each search window
+ * is run as one fork/join computation, so the search knows exactly
+ * when a window is finished.
+ *
+ * The best solution found so far is shared by every task as an upper
+ * bound. Before the parallel search starts it is seeded by a greedy
+ * solve, and any node which can't finish in fewer moves than it, by
+ * {@link BitBoard#lowerBound()}, is pruned.
+ *
+ * Nodes are only objects while they are being expanded or wait in the
+ * beam. Every node made is recorded in a {@link NodeArena} and refers to
+ * its parent by index, and the solution's path is rebuilt from the arena
+ * once the search is over.
+ *
+ * Progress is logged and counted through {@link SearchTelemetry}, which
+ * publishes live counters of every search as an MBean.
  * 
  * @author Gage Davidson
  */
 public class Search implements Runnable {
 	
-	AtomicInteger nameGenerator;
-	ConcurrentLinkedQueue<Node> completedNodes;
+	NodeArena arena;
+	Beam beam;
+	int beamWidth;
+	boolean fittestOnly; // a window's edge only needs its fittest children
 	int permittedSearchDepth;
-	AtomicInteger searchCounter;
+	int sequentialCutoff;
+	TranspositionTable transpositions;
+	volatile boolean cancelled;
+	final LongAdder expanded = new LongAdder(); // nodes whose children were generated
 	
+	private final int id = SearchTelemetry.INSTANCE.nextSearchId(); // tells searches apart in the log
 	private Node root;
-	private ExecutorService exec;
+	private SearchOptions options;
+	private ForkJoinPool pool;
+	private AtomicReference<Node> incumbent; // goal found with the fewest moves
+	private volatile boolean goalFound; // a goal was found by the current window
+	private volatile int bound; // moves of the best solution found elsewhere
+	private Consumer<Color[]> solutionListener;
 	private Node solutionLeaf;
+	private long millis; // wall time of the search once it is complete
 	
 	/**
-	 * @param board Board to use for root node
+	 * Searches a board with the program parameters on a pool which may be
+	 * shared with other searches. The pool is left running once the search
+	 * is complete.
+	 * @param board board to start from
+	 * @param pool pool to search on
 	 */
-	public Search(Color[][] board) {
-		nameGenerator = new AtomicInteger();
-		completedNodes = new ConcurrentLinkedQueue<>();
-		permittedSearchDepth = Parameters.searchDepth();
-		searchCounter = new AtomicInteger();
-		
-		initRoot(board);
-		
-		exec = Executors.newFixedThreadPool(Parameters.maxThreads());
+	public Search(Color[][] board, ForkJoinPool pool) {
+		this(board, new Color[0], pool);
 	}
 	
 	/**
-	 * @param node root node of the search
+	 * Searches from the node reached by playing a sequence of moves from
+	 * a board on a pool which may be shared with other searches. The pool
+	 * is left running once the search is complete.
+	 * @param board board to start from
+	 * @param prefix valid moves leading to the root node of the search
+	 * @param pool pool to search on
 	 */
-	public Search(Node node) {
-		nameGenerator = new AtomicInteger();
-		nameGenerator.set(node.id + 1);
-		
-		completedNodes = new ConcurrentLinkedQueue<>();
-		permittedSearchDepth = node.moves + Parameters.searchDepth();
-		searchCounter = new AtomicInteger();
-		root = node;
-		exec = Executors.newFixedThreadPool(Parameters.maxThreads());
-		
-		root.search = this;
+	public Search(Color[][] board, Color[] prefix, ForkJoinPool pool) {
+		this(board, prefix, pool, SearchOptions.fromParameters());
 	}
 	
 	/**
-	 * Initializes the root node.
-	 * @param board to start with
+	 * Searches from the node reached by playing a sequence of moves from
+	 * a board with its own options, on a pool which may be shared with
+	 * other searches. The program parameters aren't read, so searches
+	 * with different options may run at once. The pool is left running
+	 * once the search is complete.
+	 * @param board board to start from
+	 * @param prefix valid moves leading to the root node of the search
+	 * @param pool pool to search on
+	 * @param options options to search with
 	 */
-	private void initRoot(Color[][] board) {
-		root = new Node(this);
-		root.id = -1;
-		root.parent = null;
-		root.move = null;
-		root.board = board;
-		root.moves = 0;
-		root.goal = false;
+	public Search(Color[][] board, Color[] prefix, ForkJoinPool pool, SearchOptions options) {
+		Node node = Node.replay(new BitBoard(board), prefix);
 		
-		SearchBoard searchBoard = new SearchBoard(root.board);
-		root.fitness = searchBoard.fitness();
+		this.options = options;
+		arena = new NodeArena(options.offHeapNodes());
+		beamWidth = options.beamWidth();
+		beam = new Beam(beamWidth, options.evaluator());
+		fittestOnly = beamWidth == 1 && options.evaluator() == Evaluator.FITNESS;
+		incumbent = new AtomicReference<>();
+		bound = Integer.MAX_VALUE;
+		permittedSearchDepth = node.moves + options.searchDepth();
+		sequentialCutoff = options.sequentialCutoff();
+		transpositions = new TranspositionTable(options.transpositionTableSize());
+		root = node;
+		this.pool = pool;
+		
+		root.search = this;
+		root.index = arena.add(-1, null, root.moves, root.fitness);
 	}
 	
 	/**
-	 * Runs the search in parallel.
+	 * Runs the search in parallel. Each search window is searched from
+	 * every node in the beam, and the best nodes at the edge of the window
+	 * form the next beam. The search ends with the window in which a goal
+	 * board is first found, or once no node is left which could beat the
+	 * greedy solution.
 	 */
 	@Override
 	public void run() {
-		searchCounter.incrementAndGet();
-		Node.generateAndRunChildren(exec, root);
+		SearchTelemetry telemetry = SearchTelemetry.INSTANCE;
+		Node[] nodes = { root };
+		long started = System.nanoTime();
 		
-		for (;;) {
-			waitForSearchHalt();
-			
-			Node fittestNode = fittestNode();
+		telemetry.started(this);
+		
+		try {
+			incumbent.set(greedySolution(root));
+			improved(incumbent.get());
 			
-			System.out.printf("Fittest node has %d moves with fittness %d\n",
-					fittestNode.moves, fittestNode.fitness);
+			log("greedy", "search", id, "moves", incumbent.get().moves);
 			
-			if (fittestNode.goal) {
-				solutionLeaf = fittestNode;
-				fittestNode.board = null;
-				break;
+			for (;;) {
+				long windowStarted = System.nanoTime();
+				
+				runWindow(nodes);
+				
+				if (goalFound || cancelled)
+					break;
+				
+				nodes = beam.drain();
+				
+				if (nodes.length == 0)
+					break;
+				
+				long windowMillis = (System.nanoTime() - windowStarted) / 1000000;
+				
+				telemetry.windowDone(id, windowMillis, nodes.length, nodes[0].fitness);
+				log("window", "search", id, "moves", nodes[0].moves, "fitness", nodes[0].fitness,
+						"beam", nodes.length, "millis", windowMillis);
+				
+				permittedSearchDepth += options.searchDepth();
+				transpositions.nextGeneration();
 			}
-			
-			permittedSearchDepth += Parameters.searchDepth();
-			
-			searchCounter.incrementAndGet();
-			Node.generateAndRunChildren(exec, fittestNode);
+		} finally {
+			telemetry.stopped(this);
 		}
 		
-		System.out.println("Search is complete.");
-		if (Parameters.displaySolution())
+		solutionLeaf = pathTo(incumbent.get());
+		solutionLeaf.board = null;
+		millis = (System.nanoTime() - started) / 1000000;
+		
+		log("complete", "search", id, "moves", solutionLeaf.moves, "fitness", solutionLeaf.fitness,
+				"nodes", arena.size(), "kb", arena.bytes() / 1024, "millis", millis);
+		
+		if (options.displaySolution())
 			solutionLeaf.displaySolution();
+	}
+	
+	/**
+	 * Logs an event of this search unless its options turn logging off.
+	 * @param event name of the event
+	 * @param fields keys each followed by its value
+	 */
+	private void log(String event, Object... fields) {
+		if (options.logEvents())
+			SearchTelemetry.INSTANCE.log(event, fields);
+	}
+	
+	/**
+	 * Searches one window from each of the given nodes as a single
+	 * fork/join computation.
+	 * @param nodes nodes to search from
+	 */
+	private void runWindow(Node[] nodes) {
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(nodes.length);
+		
+		for (Node node : nodes)
+			tasks.add(ForkJoinTask.adapt(node::generateAndRunChildren));
 		
-		exec.shutdown();
+		SearchTelemetry.INSTANCE.forked(tasks.size());
 		try {
-			exec.awaitTermination(2, TimeUnit.DAYS);
-		} catch (InterruptedException ex) {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		} finally {
+			SearchTelemetry.INSTANCE.forked(-tasks.size());
 		}
 	}
 	
 	/**
-	 * Blocks execution until threads are finished searching.
+	 * Solves the board greedily from a node by always taking the fittest
+	 * move. The given node's board is left intact.
+	 * @param start node to solve from
+	 * @return goal node of the greedy solution
 	 */
-	private void waitForSearchHalt() {
-		for (;;) {
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException ex) {
-			}
+	private Node greedySolution(Node start) {
+		Node node = start;
+		
+		while (! node.board.goalBoard()) {
+			BitBoard.Expansion expansion = node.board.expand();
+			Color colorMove = Color.COLORS[Node.fittestMove(expansion)];
 			
-			if (searchCounter.get() == 0)
-				return;
+			Node child = new Node(this);
+			child.job = node.job;
+			child.move = colorMove;
+			child.board = node.board.applyMove(expansion, colorMove);
+			child.moves = node.moves + 1;
+			child.fitness = expansion.fitness(colorMove);
+			child.goal = expansion.goalBoard(colorMove);
+			child.index = arena.add(node.index, colorMove, child.moves, child.fitness);
+			
+			if (node != start)
+				node.board = null;
 			
-			System.out.printf("Awaiting search halt, size = %d, counter = %d\n", completedNodes.size(), searchCounter.get());
+			node = child;
 		}
-	}
-	
-	/**
-	 * @return fittest node in the queue
-	 */
-	private Node fittestNode() {
-		if (containsGoalBoard())
-			return fittestMovesNode();
 		
-		return fittestFitnessNode();
+		return node;
 	}
 	
 	/**
-	 * @return fittest node based on fitness
+	 * Rebuilds the path from the root to a node from the node arena.
+	 * Each node on the path is named by its index, counting from the
+	 * root's id.
+	 * @param leaf node to rebuild the path to
+	 * @return the given node, linked to the root through its parents
 	 */
-	private Node fittestFitnessNode() {
-		Node fittest = null;
+	private Node pathTo(Node leaf) {
+		if (leaf == root)
+			return leaf;
 		
-		while (! completedNodes.isEmpty()) {
-			Node node = completedNodes.poll();
-			
-			if (fittest == null) {
-				fittest = node;
-				continue;
-			}
+		Node child = leaf;
+		leaf.id = root.id + leaf.index;
+		
+		for (int index = arena.parent(leaf.index); index != root.index; index = arena.parent(index)) {
+			Node node = new Node(this);
+			node.id = root.id + index;
+			node.index = index;
+			node.job = root.job;
+			node.move = arena.move(index);
+			node.moves = arena.moves(index);
+			node.fitness = arena.fitness(index);
 			
-			if (node.fitness > fittest.fitness)
-				fittest = node;
+			child.parent = node;
+			child = node;
 		}
 		
-		return fittest;
+		child.parent = root;
+		
+		return leaf;
 	}
 	
 	/**
-	 * @return fittest node based on moves
+	 * Records a goal node, keeping the one with the fewest moves as the
+	 * incumbent.
+	 * @param node goal node
 	 */
-	private Node fittestMovesNode() {
-		Node fittest = null;
+	void offerGoal(Node node) {
+		goalFound = true;
 		
-		while (! completedNodes.isEmpty()) {
-			Node node = completedNodes.poll();
+		for (;;) {
+			Node current = incumbent.get();
 			
-			if (! node.goal)
-				continue;
+			if (current != null && current.moves <= node.moves)
+				return;
 			
-			if (fittest == null) {
-				fittest = node;
-				continue;
+			if (incumbent.compareAndSet(current, node)) {
+				improved(node);
+				return;
 			}
-			
-			if (node.moves < fittest.moves)
-				fittest = node;
 		}
+	}
+	
+	/**
+	 * Tells the solution listener about a new incumbent.
+	 * @param node goal node of the incumbent
+	 */
+	private void improved(Node node) {
+		SearchTelemetry.INSTANCE.improved(id, node.moves);
 		
-		return fittest;
+		if (solutionListener != null && node.moves < bound)
+			solutionListener.accept(pathTo(node).getMoveSequence());
+	}
+	
+	/**
+	 * Sets a bound from solutions found elsewhere, such as by other
+	 * solvers searching other parts of the tree. Nodes which can't finish
+	 * in fewer moves are pruned.
+	 * @param moves moves of the best solution found elsewhere
+	 */
+	public void setBound(int moves) {
+		bound = moves;
 	}
 	
 	/**
-	 * @return true if the queue contains a goal-state board
+	 * Sets a listener told the moves of each better solution as soon as
+	 * the search finds it, starting with the greedy solution. It may be
+	 * called from any of the search's threads.
+	 * @param listener listener of better solutions
 	 */
-	private boolean containsGoalBoard() {
-		for (Node node : completedNodes)
-			if (node.goal)
-				return true;
+	public void setSolutionListener(Consumer<Color[]> listener) {
+		solutionListener = listener;
+	}
+	
+	/**
+	 * Determines if a node can't lead to a solution with fewer moves than
+	 * the incumbent or the bound set from outside. The cheaper bounds are tried first.
+	 * @param node node with its board
+	 * @return true if the node should be pruned
+	 */
+	boolean cannotImprove(Node node) {
+		int movesLeft = Math.min(incumbent.get().moves, bound) - node.moves; // moves left to beat the best solution
+		
+		BitBoard board = node.board;
+		boolean pruned = movesLeft <= 1 || board.colorsRemaining() >= movesLeft || board.eccentricity() >= movesLeft;
 		
-		return false;
+		SearchTelemetry.INSTANCE.pruneChecked(pruned);
+		
+		return pruned;
+	}
+	
+	/**
+	 * Stops the search as soon as possible. The search still completes
+	 * with the best solution it found, which is at worst the greedy
+	 * solution.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * @return number of nodes made by the search
+	 */
+	public int getNodesMade() {
+		return arena.size();
+	}
+	
+	/**
+	 * @return number of nodes whose children the search generated
+	 */
+	public long getNodesExpanded() {
+		return expanded.sum();
+	}
+	
+	/**
+	 * @return bytes taken by the nodes made, which is the most they took
+	 * since nodes are never freed
+	 */
+	public long getNodeBytes() {
+		return arena.usedBytes();
+	}
+	
+	/**
+	 * @return bytes of the transposition table, which are set by its
+	 * size whether or not the search fills it
+	 */
+	public long getTableBytes() {
+		return transpositions.bytes();
+	}
+	
+	/**
+	 * @return wall time of the search in milliseconds, once it is complete
+	 */
+	public long getMillis() {
+		return millis;
+	}
+	
+	/**
+	 * @return id of the search, which its log lines and telemetry carry
+	 */
+	int getId() {
+		return id;
+	}
+	
+	/**
+	 * @return pool the search runs on
+	 */
+	ForkJoinPool getPool() {
+		return pool;
 	}
 	
 	/**
@@ -0,0 +1,113 @@
+package search;
+
+import main.Parameters;
+
+/**
+ * The parameters one search is run with. Options can't be changed once
+ * they are made, so searches with different options can run at the same
+ * time without reading the program parameters, which belong to the
+ * whole program.
+ *
+ * @author Gage Davidson
+ */
+public final class SearchOptions {
+	
+	private final int searchDepth;
+	private final int beamWidth;
+	private final Evaluator evaluator;
+	private final int sequentialCutoff;
+	private final int transpositionTableSize;
+	private final boolean offHeapNodes;
+	private final boolean displaySolution;
+	private final boolean logEvents;
+	
+	/**
+	 * @param searchDepth moves searched in each window
+	 * @param beamWidth nodes kept between windows
+	 * @param evaluator evaluator choosing the nodes kept between windows
+	 * @param sequentialCutoff depth at which subtrees stop being forked
+	 * @param transpositionTableSize entries of the transposition table, 0 to disable it
+	 * @param offHeapNodes true if nodes are recorded off the heap
+	 * @param displaySolution true if the solution is printed once the search is complete
+	 * @param logEvents true if the search logs its windows and solution
+	 */
+	public SearchOptions(int searchDepth, int beamWidth, Evaluator evaluator, int sequentialCutoff,
+			int transpositionTableSize, boolean offHeapNodes, boolean displaySolution, boolean logEvents) {
+		if (searchDepth < 1 || beamWidth < 1)
+			throw new IllegalArgumentException("Search depth and beam width must be positive");
+		
+		this.searchDepth = searchDepth;
+		this.beamWidth = beamWidth;
+		this.evaluator = evaluator;
+		this.sequentialCutoff = sequentialCutoff;
+		this.transpositionTableSize = transpositionTableSize;
+		this.offHeapNodes = offHeapNodes;
+		this.displaySolution = displaySolution;
+		this.logEvents = logEvents;
+	}
+	
+	/**
+	 * @return options from the program parameters as they are now
+	 */
+	public static SearchOptions fromParameters() {
+		return new SearchOptions(Parameters.searchDepth(), Parameters.beamWidth(), Parameters.evaluator(), Parameters.sequentialCutoff(),
+				Parameters.transpositionTableSize(), Parameters.offHeapNodes(), Parameters.displaySolution(), true);
+	}
+	
+	public int searchDepth() { return searchDepth; }
+	public int beamWidth() { return beamWidth; }
+	public Evaluator evaluator() { return evaluator; }
+	public int sequentialCutoff() { return sequentialCutoff; }
+	public int transpositionTableSize() { return transpositionTableSize; }
+	public boolean offHeapNodes() { return offHeapNodes; }
+	public boolean displaySolution() { return displaySolution; }
+	public boolean logEvents() { return logEvents; }
+	
+	/**
+	 * @param searchDepth moves searched in each window
+	 * @return these options with the given search depth
+	 */
+	public SearchOptions withSearchDepth(int searchDepth) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+	
+	/**
+	 * @param beamWidth nodes kept between windows
+	 * @return these options with the given beam width
+	 */
+	public SearchOptions withBeamWidth(int beamWidth) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+	
+	/**
+	 * @param evaluator evaluator choosing the nodes kept between windows
+	 * @return these options with the given evaluator
+	 */
+	public SearchOptions withEvaluator(Evaluator evaluator) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+	
+	/**
+	 * @param transpositionTableSize entries of the transposition table, 0 to disable it
+	 * @return these options with the given transposition table size
+	 */
+	public SearchOptions withTranspositionTableSize(int transpositionTableSize) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+	
+	/**
+	 * @param displaySolution true if the solution is printed once the search is complete
+	 * @return these options with the solution printed or not
+	 */
+	public SearchOptions withDisplaySolution(boolean displaySolution) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+	
+	/**
+	 * @param logEvents true if the search logs its windows and solution
+	 * @return these options with the search's events logged or not
+	 */
+	public SearchOptions withLogEvents(boolean logEvents) {
+		return new SearchOptions(searchDepth, beamWidth, evaluator, sequentialCutoff, transpositionTableSize, offHeapNodes, displaySolution, logEvents);
+	}
+}
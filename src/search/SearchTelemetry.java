@@ -0,0 +1,284 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what every search in this program does and publishes it as an
+ * MBean, so a solver's saturation can be watched while it runs. Counters
+ * on the search's hot path are {@link LongAdder}s added to once per
+ * expansion or prune check, and are shared by every search. Once a second
+ * the rates and the busy ratio of the searches' pools are measured from
+ * them. The best solution and last window of each running search are
+ * kept by its id, so searches running at once don't overwrite each other.
+ *
+ * Searches log through {@link #log(String, Object...)} instead of
+ * printing, as one line of key=value fields per event. Only
+ * {@value #LOG_LINES_PER_SECOND} lines are logged each second, so many
+ * searches running at once can't flood the output, and the number of
+ * lines dropped is added to the next line logged.
+ *
+ * @author Gage Davidson
+ */
+final class SearchTelemetry implements SearchTelemetryMXBean {
+	
+	static final SearchTelemetry INSTANCE = new SearchTelemetry();
+	
+	private static final String OBJECT_NAME = "flood:type=Search";
+	private static final int LOG_LINES_PER_SECOND = 20;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	
+	private final LongAdder nodesMade = new LongAdder();
+	private final LongAdder nodesExpanded = new LongAdder();
+	private final LongAdder tableProbes = new LongAdder();
+	private final LongAdder tableHits = new LongAdder();
+	private final LongAdder pruneChecks = new LongAdder();
+	private final LongAdder prunes = new LongAdder();
+	private final LongAdder inFlightTasks = new LongAdder();
+	private final LongAdder windows = new LongAdder();
+	private final Set<Search> activeSearches = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger nextSearchId = new AtomicInteger(1);
+	private final Map<Integer, Integer> beamSize = new ConcurrentHashMap<>(); // by search id
+	private final Map<Integer, Integer> bestMoves = new ConcurrentHashMap<>();
+	private final Map<Integer, Integer> bestFitness = new ConcurrentHashMap<>();
+	private final Map<Integer, Long> windowMillis = new ConcurrentHashMap<>();
+	
+	private volatile double nodesPerSecond;
+	private volatile double expansionsPerSecond;
+	private volatile double busyRatio;
+	private volatile double transpositionHitRate;
+	private volatile double pruneRate;
+	private long lastTick, lastNodes, lastExpanded, lastProbes, lastHits, lastChecks, lastPrunes; // only used by the ticker
+	
+	private long logSecond; // start of the second lines are being counted in
+	private int linesLogged; // lines logged in the current second
+	private int linesDropped; // lines dropped since the last line logged
+	
+	/**
+	 * Starts measuring rates. The MBean is registered by the ticker,
+	 * since starting the platform MBean server takes long enough to
+	 * hold up the first search.
+	 */
+	private SearchTelemetry() {
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "search-telemetry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		lastTick = System.nanoTime();
+		logSecond = lastTick;
+		ticker.execute(this::register);
+		ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Registers the MBean with the platform MBean server.
+	 */
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException ex) {
+			System.out.println("JMException: " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * @return id of a new search, used to tell searches apart in the log
+	 */
+	int nextSearchId() {
+		return nextSearchId.getAndIncrement();
+	}
+	
+	/**
+	 * @param search search which has started running
+	 */
+	void started(Search search) {
+		activeSearches.add(search);
+	}
+	
+	/**
+	 * @param search search which has stopped running
+	 */
+	void stopped(Search search) {
+		activeSearches.remove(search);
+		forget(search.getId());
+	}
+	
+	/**
+	 * Drops the best solution and last window of a search once it stops.
+	 * @param search id of the search
+	 */
+	void forget(int search) {
+		beamSize.remove(search);
+		bestMoves.remove(search);
+		bestFitness.remove(search);
+		windowMillis.remove(search);
+	}
+	
+	/**
+	 * Counts one node's expansion.
+	 * @param made children made
+	 * @param probes children looked up in the transposition table
+	 * @param hits children pruned by the transposition table
+	 */
+	void expanded(int made, int probes, int hits) {
+		nodesExpanded.increment();
+		nodesMade.add(made);
+		tableProbes.add(probes);
+		tableHits.add(hits);
+	}
+	
+	/**
+	 * Counts one check of whether a node can beat the best solution.
+	 * @param pruned true if the node was pruned
+	 */
+	void pruneChecked(boolean pruned) {
+		pruneChecks.increment();
+		
+		if (pruned)
+			prunes.increment();
+	}
+	
+	/**
+	 * @param tasks number of tasks forked, or negative once they are joined
+	 */
+	void forked(int tasks) {
+		inFlightTasks.add(tasks);
+	}
+	
+	/**
+	 * Records a search window once it is complete.
+	 * @param search id of the search
+	 * @param millis wall time of the window
+	 * @param beam nodes drained from the beam for the next window
+	 * @param fitness fitness of the fittest node in the beam
+	 */
+	void windowDone(int search, long millis, int beam, int fitness) {
+		windows.increment();
+		windowMillis.put(search, millis);
+		beamSize.put(search, beam);
+		bestFitness.put(search, fitness);
+	}
+	
+	/**
+	 * Records a better solution. Improvements found by different threads
+	 * may arrive in any order, so only the fewest moves are kept.
+	 * @param search id of the search
+	 * @param moves moves of a better solution found by the search
+	 */
+	void improved(int search, int moves) {
+		bestMoves.merge(search, moves, Math::min);
+	}
+	
+	/**
+	 * Logs an event as one line of key=value fields, unless too many
+	 * lines were already logged this second.
+	 * @param event name of the event
+	 * @param fields keys each followed by its value
+	 */
+	synchronized void log(String event, Object... fields) {
+		long now = System.nanoTime();
+		
+		if (now - logSecond >= NANOS_PER_SECOND) {
+			logSecond = now;
+			linesLogged = 0;
+		}
+		
+		if (linesLogged == LOG_LINES_PER_SECOND) {
+			++linesDropped;
+			return;
+		}
+		
+		++linesLogged;
+		
+		StringBuilder line = new StringBuilder("event=").append(event);
+		
+		for (int i = 0; i + 1 < fields.length; i += 2)
+			line.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+		
+		if (linesDropped > 0) {
+			line.append(" dropped=").append(linesDropped);
+			linesDropped = 0;
+		}
+		
+		System.out.println(line);
+	}
+	
+	/**
+	 * Measures the rates over the time since the last tick, and the busy
+	 * ratio of the pools searches are running on now. A pool shared by
+	 * several searches is only counted once.
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		double seconds = (double) (now - lastTick) / NANOS_PER_SECOND;
+		long nodes = nodesMade.sum(), expanded = nodesExpanded.sum();
+		long probes = tableProbes.sum(), hits = tableHits.sum();
+		long checks = pruneChecks.sum(), pruned = prunes.sum();
+		
+		nodesPerSecond = (nodes - lastNodes) / seconds;
+		expansionsPerSecond = (expanded - lastExpanded) / seconds;
+		transpositionHitRate = ratio(hits - lastHits, probes - lastProbes);
+		pruneRate = ratio(pruned - lastPrunes, checks - lastChecks);
+		
+		Set<ForkJoinPool> pools = Collections.newSetFromMap(new IdentityHashMap<>());
+		int active = 0, parallelism = 0;
+		
+		for (Search search : activeSearches)
+			pools.add(search.getPool());
+		
+		for (ForkJoinPool pool : pools) {
+			active += pool.getActiveThreadCount();
+			parallelism += pool.getParallelism();
+		}
+		
+		busyRatio = ratio(active, parallelism);
+		
+		lastTick = now;
+		lastNodes = nodes;
+		lastExpanded = expanded;
+		lastProbes = probes;
+		lastHits = hits;
+		lastChecks = checks;
+		lastPrunes = pruned;
+	}
+	
+	/**
+	 * @param part part of the whole
+	 * @param whole whole
+	 * @return part divided by whole, or 0 if the whole is 0
+	 */
+	private static double ratio(long part, long whole) {
+		return whole == 0 ? 0 : (double) part / whole;
+	}
+	
+	@Override public long getNodesMade() { return nodesMade.sum(); }
+	@Override public double getNodesPerSecond() { return nodesPerSecond; }
+	@Override public long getNodesExpanded() { return nodesExpanded.sum(); }
+	@Override public double getExpansionsPerSecond() { return expansionsPerSecond; }
+	@Override public int getActiveSearches() { return activeSearches.size(); }
+	@Override public long getInFlightTasks() { return inFlightTasks.sum(); }
+	@Override public Map<Integer, Integer> getBeamSize() { return new TreeMap<>(beamSize); }
+	@Override public double getBusyRatio() { return busyRatio; }
+	@Override public double getTranspositionHitRate() { return transpositionHitRate; }
+	@Override public double getPruneRate() { return pruneRate; }
+	@Override public Map<Integer, Integer> getBestMoves() { return new TreeMap<>(bestMoves); }
+	@Override public Map<Integer, Integer> getBestFitness() { return new TreeMap<>(bestFitness); }
+	@Override public long getWindows() { return windows.sum(); }
+	@Override public Map<Integer, Long> getWindowMillis() { return new TreeMap<>(windowMillis); }
+}
@@ -0,0 +1,97 @@
+package search;
+
+import java.util.Map;
+
+/**
+ * Live telemetry of every search running in this program, registered
+ * with the platform MBean server as "flood:type=Search". Rates and
+ * ratios are measured over the last second; counts are totals since
+ * the program started. Counts and rates are of the whole process. The
+ * best solution and last window are given for each running search, by
+ * the id its log lines carry.
+ *
+ * Beam searches report every attribute. A* searches count their nodes,
+ * expansions and states already reached, and HDA* searches count their
+ * nodes and expansions and report their best solution. Neither has
+ * windows, a beam or a pool, so they aren't among the active searches
+ * or in the busy ratio.
+ *
+ * @author Gage Davidson
+ */
+public interface SearchTelemetryMXBean {
+	
+	/**
+	 * @return nodes made by every search
+	 */
+	long getNodesMade();
+	
+	/**
+	 * @return nodes made each second
+	 */
+	double getNodesPerSecond();
+	
+	/**
+	 * @return nodes whose children were generated by every search
+	 */
+	long getNodesExpanded();
+	
+	/**
+	 * @return nodes expanded each second
+	 */
+	double getExpansionsPerSecond();
+	
+	/**
+	 * @return searches running now
+	 */
+	int getActiveSearches();
+	
+	/**
+	 * @return fork/join tasks forked by searches and not yet joined
+	 */
+	long getInFlightTasks();
+	
+	/**
+	 * @return nodes in the beam drained by the last window of each running
+	 * search, by search id
+	 */
+	Map<Integer, Integer> getBeamSize();
+	
+	/**
+	 * @return share of the threads of the searches' pools which are running tasks
+	 */
+	double getBusyRatio();
+	
+	/**
+	 * @return share of children pruned because the transposition table, or
+	 * an A* search's closed states, already reached their state
+	 */
+	double getTranspositionHitRate();
+	
+	/**
+	 * @return share of nodes pruned because they can't beat the best solution
+	 */
+	double getPruneRate();
+	
+	/**
+	 * @return moves of the best solution found so far by each running
+	 * search, by search id
+	 */
+	Map<Integer, Integer> getBestMoves();
+	
+	/**
+	 * @return fitness of the fittest node of the last window of each
+	 * running search, by search id
+	 */
+	Map<Integer, Integer> getBestFitness();
+	
+	/**
+	 * @return windows searched by every search
+	 */
+	long getWindows();
+	
+	/**
+	 * @return wall time of the last window of each running search, by
+	 * search id
+	 */
+	Map<Integer, Long> getWindowMillis();
+}
@@ -0,0 +1,177 @@
+package search;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import game.Color;
+
+/**
+ * Solves boards on one pool shared by every solve, so many boards can be
+ * solved at once in one program. Each solve has its own options and
+ * never reads or sets the program parameters, so boards of different
+ * sizes and colors can be solved with different options at the same time.
+ *
+ * At most one search is run for each core, and no more than the pool
+ * has threads, since more searches than cores would only add to the
+ * memory used. The rest of the solves wait in the order they were
+ * given. A search is only made once its solve starts running, so solves
+ * which are waiting use no memory for nodes or a transposition table.
+ * Cancelling a solve's future stops its search.
+ *
+ * @author Gage Davidson
+ */
+public class Solver {
+	
+	private final ForkJoinPool pool;
+	private final boolean ownsPool; // the pool was made for this solver and ends with it
+	private final Queue<Runnable> waiting = new ArrayDeque<>(); // solves not yet given to the pool
+	private final int maxRunning; // solves given to the pool at once
+	private int running; // solves given to the pool and not yet complete
+	private boolean shutdown;
+	
+	/**
+	 * @param threads number of threads shared by every solve
+	 */
+	public Solver(int threads) {
+		this(new ForkJoinPool(threads), true);
+	}
+	
+	/**
+	 * @param pool pool shared by every solve, which is left running
+	 * once the solver is shut down
+	 */
+	public Solver(ForkJoinPool pool) {
+		this(pool, false);
+	}
+	
+	/**
+	 * @param pool pool shared by every solve
+	 * @param ownsPool true if the pool is shut down with the solver
+	 */
+	private Solver(ForkJoinPool pool, boolean ownsPool) {
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+		maxRunning = Math.min(pool.getParallelism(), Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Starts solving a board.
+	 * @param board board to solve, which must not be changed until it is solved
+	 * @param options options to search with
+	 * @return future of the moves of the best solution found
+	 */
+	public CompletableFuture<Color[]> solve(Color[][] board, SearchOptions options) {
+		return solve(board, options, search -> search.getSolutionLeaf().getMoveSequence());
+	}
+	
+	/**
+	 * Starts solving a board, for callers which also want to know what
+	 * its search cost. The future doesn't keep the search, so its nodes
+	 * can be freed as soon as it is complete.
+	 * @param board board to solve, which must not be changed until it is solved
+	 * @param options options to search with
+	 * @param result what the future is completed with, from the complete search
+	 * @return future of the result
+	 */
+	public <T> CompletableFuture<T> solve(Color[][] board, SearchOptions options, Function<Search, T> result) {
+		CompletableFuture<T> solution = new CompletableFuture<>();
+		AtomicReference<Search> running = new AtomicReference<>();
+		
+		solution.whenComplete((value, ex) -> {
+			Search search = running.get();
+			
+			if (search != null)
+				search.cancel();
+		});
+		
+		submit(() -> {
+			try {
+				run(board, options, result, solution, running);
+			} finally {
+				finished(); // once the search is unreachable, since the next may start at once
+			}
+		});
+		
+		return solution;
+	}
+	
+	/**
+	 * Searches a board unless its solve was cancelled while it waited.
+	 * @param board board to solve
+	 * @param options options to search with
+	 * @param result what the solution is completed with, from the complete search
+	 * @param solution future of the solve
+	 * @param running search of the solve while it runs, so cancelling the solve can stop it
+	 */
+	private <T> void run(Color[][] board, SearchOptions options, Function<Search, T> result,
+			CompletableFuture<T> solution, AtomicReference<Search> running) {
+		if (solution.isDone())
+			return;
+		
+		try {
+			Search search = new Search(board, new Color[0], pool, options);
+			
+			running.set(search);
+			
+			if (solution.isDone()) // cancelled before the search was set
+				search.cancel();
+			
+			search.run();
+			solution.complete(result.apply(search));
+		} catch (Throwable ex) {
+			solution.completeExceptionally(ex);
+		} finally {
+			running.set(null);
+		}
+	}
+	
+	/**
+	 * Gives a solve to the pool if fewer than the most solves are running,
+	 * otherwise leaves it waiting.
+	 * @param solve solve to run
+	 * @throws RejectedExecutionException if the solver was shut down
+	 */
+	private synchronized void submit(Runnable solve) {
+		if (shutdown)
+			throw new RejectedExecutionException("Solver is shut down");
+		
+		if (running < maxRunning) {
+			++running;
+			pool.execute(solve);
+		} else {
+			waiting.add(solve);
+		}
+	}
+	
+	/**
+	 * Gives the next waiting solve to the pool once a solve is complete.
+	 */
+	private synchronized void finished() {
+		Runnable next = waiting.poll();
+		
+		if (next != null) {
+			pool.execute(next);
+			return;
+		}
+		
+		--running;
+		
+		if (shutdown && running == 0 && ownsPool)
+			pool.shutdown();
+	}
+	
+	/**
+	 * Stops taking new solves. Solves already started or waiting still complete.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		
+		if (running == 0 && ownsPool)
+			pool.shutdown();
+	}
+}
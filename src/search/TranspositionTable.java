@@ -0,0 +1,85 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free table of board states the search has already
+ * reached, keyed by the board's Zobrist hash and storing the fewest
+ * moves the state was reached in.
+ *
+ * Each slot holds the key xor'd with its data alongside the data, so a
+ * slot torn by two racing threads simply fails to match instead of
+ * pruning the wrong state. When two states share a slot the one
+ * reached in fewer moves is kept, since it prunes larger subtrees, and
+ * entries from an earlier generation are always replaced.
+ *
+ * @author Gage Davidson
+ */
+class TranspositionTable {
+	
+	private static final long MOVES_MASK = 0xFFFFL;
+	
+	private final AtomicLongArray slots; // pairs of (key ^ data, data)
+	private final int mask;
+	private volatile long generation;
+	
+	/**
+	 * @param size requested number of entries, rounded down to a power of
+	 * two. A size of 0 disables the table.
+	 */
+	TranspositionTable(int size) {
+		int entries = size <= 0 ? 0 : Integer.highestOneBit(size);
+		
+		slots = new AtomicLongArray(entries * 2);
+		mask = entries - 1;
+		generation = 1;
+	}
+	
+	/**
+	 * @return bytes used by the table's slots
+	 */
+	long bytes() {
+		return slots.length() * 8L;
+	}
+	
+	/**
+	 * Starts a new generation. Entries from earlier generations no
+	 * longer prune anything and are replaced first.
+	 */
+	void nextGeneration() {
+		++generation;
+	}
+	
+	/**
+	 * Records that a state has been reached and decides if it is worth
+	 * searching.
+	 * @param hash Zobrist hash of the state
+	 * @param moves moves taken to reach the state
+	 * @return false if this generation already reached the state in
+	 * the same number of moves or fewer
+	 */
+	boolean visit(long hash, int moves) {
+		if (mask < 0)
+			return true;
+		
+		int slot = ((int) (hash ^ (hash >>> 32)) & mask) * 2;
+		long data = slots.get(slot + 1);
+		long storedGeneration = data >>> 16;
+		int storedMoves = (int) (data & MOVES_MASK);
+		long current = generation & (-1L >>> 16);
+		
+		boolean sameKey = (slots.get(slot) ^ data) == hash;
+		
+		if (sameKey && storedGeneration == current && storedMoves <= moves)
+			return false;
+		
+		if (sameKey || storedGeneration != current || moves <= storedMoves) {
+			long newData = current << 16 | (moves & MOVES_MASK);
+			
+			slots.set(slot, hash ^ newData);
+			slots.set(slot + 1, newData);
+		}
+		
+		return true;
+	}
+}